@@ -0,0 +1,85 @@
+package net.xmlizer.wordhierarchy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Measures building word trees with the different builders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BuildBenchmark {
+
+	@Param({ "100000" })
+	int size;
+
+	@Param({ "26" })
+	int alphabet;
+
+	@Param({ "0.2", "0.8" })
+	double sharing;
+
+	private List<String> vocabulary;
+	private List<String> sortedVocabulary;
+
+	@Setup
+	public void setup() {
+		vocabulary = Vocabularies.generate(size, alphabet, sharing);
+		sortedVocabulary = new ArrayList<String>(vocabulary);
+		Collections.sort(sortedVocabulary);
+	}
+
+	@Benchmark
+	public Word createWordTree() {
+		return WordHierarchyBuilder.createWordTree(vocabulary);
+	}
+
+	@Benchmark
+	public Word createWordTreeFromSorted() {
+		return WordHierarchyBuilder.createWordTreeFromSorted(sortedVocabulary
+				.iterator());
+	}
+
+	@Benchmark
+	public Word createWordTreeParallel() {
+		return WordHierarchyBuilder.createWordTreeParallel(vocabulary);
+	}
+}
@@ -0,0 +1,114 @@
+package net.xmlizer.wordhierarchy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Measures finding the words of a vocabulary in a text with the generated
+ * regex, plain and atomic, and with an {@link AhoCorasickMatcher} for
+ * comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class MatchBenchmark {
+
+	@Param({ "10000" })
+	int size;
+
+	@Param({ "26" })
+	int alphabet;
+
+	@Param({ "0.5" })
+	double sharing;
+
+	@Param({ "1000000" })
+	int textLength;
+
+	private Pattern plain;
+	private Pattern atomic;
+	private AhoCorasickMatcher matcher;
+	private String text;
+
+	@Setup
+	public void setup() {
+		final List<String> vocabulary = Vocabularies.generate(size, alphabet,
+				sharing);
+		final Word tree = WordHierarchyBuilder.createWordTree(vocabulary);
+		plain = Pattern.compile(tree.toRegex());
+		final RegexWordProcessor wp = new RegexWordProcessor(true);
+		tree.processAll(wp, true);
+		atomic = Pattern.compile(wp.getResult());
+		matcher = AhoCorasickMatcher.of(tree);
+		text = Vocabularies.text(vocabulary, alphabet, textLength);
+	}
+
+	private int find(final Pattern pattern) {
+		int count = 0;
+		final Matcher m = pattern.matcher(text);
+		while (m.find()) {
+			++count;
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int findPlain() {
+		return find(plain);
+	}
+
+	@Benchmark
+	public int findAtomic() {
+		return find(atomic);
+	}
+
+	@Benchmark
+	public int findAhoCorasick() {
+		final int[] count = new int[1];
+		matcher.match(text, AhoCorasickMatcher.Mode.LEFTMOST_LONGEST,
+				new AhoCorasickMatcher.MatchListener() {
+					@Override
+					public void match(final int start, final int end) {
+						++count[0];
+					}
+				});
+		return count[0];
+	}
+}
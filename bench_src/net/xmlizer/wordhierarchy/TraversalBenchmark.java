@@ -0,0 +1,139 @@
+package net.xmlizer.wordhierarchy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Measures traversing a word tree and generating its string and regex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class TraversalBenchmark {
+
+	@Param({ "100000" })
+	int size;
+
+	@Param({ "26" })
+	int alphabet;
+
+	@Param({ "0.2", "0.8" })
+	double sharing;
+
+	private Word tree;
+	/** A word of the tree, removed and added again to change the tree. */
+	private String changed;
+
+	@Setup
+	public void setup() {
+		tree = WordHierarchyBuilder.createWordTree(Vocabularies.generate(size,
+				alphabet, sharing));
+		changed = Vocabularies.generate(size, alphabet, sharing).get(size / 2);
+	}
+
+	private static int count(final Word tree, final boolean sorted) {
+		final int[] count = new int[1];
+		tree.processAll(new AbstractWordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				++count[0];
+				return true;
+			}
+		}, sorted);
+		return count[0];
+	}
+
+	@Benchmark
+	public int processAll() {
+		return count(tree, false);
+	}
+
+	@Benchmark
+	public int processAllSorted() {
+		return count(tree, true);
+	}
+
+	@Benchmark
+	public String stringify() {
+		final StringifyWordProcessor wp = new StringifyWordProcessor();
+		tree.processAll(wp, true);
+		return wp.getResult();
+	}
+
+	@Benchmark
+	public String regex() {
+		final RegexWordProcessor wp = new RegexWordProcessor();
+		tree.processAll(wp);
+		return wp.getResult();
+	}
+
+	@Benchmark
+	public String regexSorted() {
+		final RegexWordProcessor wp = new RegexWordProcessor();
+		tree.processAll(wp, true);
+		return wp.getResult();
+	}
+
+	@Benchmark
+	public String regexAtomic() {
+		final RegexWordProcessor wp = new RegexWordProcessor(true);
+		tree.processAll(wp, true);
+		return wp.getResult();
+	}
+
+	@Benchmark
+	public long words() {
+		return tree.words().filter(word -> word.length() > 5).count();
+	}
+
+	@Benchmark
+	public long wordsParallel() {
+		return tree.words().parallel().filter(word -> word.length() > 5)
+				.count();
+	}
+
+	/**
+	 * Regenerates the cached regex after a word has been removed and added
+	 * again, compare to {@link #regexSorted()}.
+	 */
+	@Benchmark
+	public String regexIncremental() {
+		tree.remove(changed);
+		WordHierarchyBuilder.addWord(tree, changed);
+		return tree.toRegex();
+	}
+}
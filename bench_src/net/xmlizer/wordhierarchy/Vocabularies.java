@@ -0,0 +1,118 @@
+package net.xmlizer.wordhierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Generates reproducible synthetic vocabularies and texts for the benchmarks.
+ */
+final class Vocabularies {
+	private static final long SEED = 42;
+
+	private Vocabularies() {}
+
+	/**
+	 * Generates a vocabulary.
+	 * 
+	 * @param size
+	 *            the number of words, some of which may be duplicates
+	 * @param alphabet
+	 *            the number of different characters. The first 26 are a to z,
+	 *            further ones are letters from U+00C0 on, skipping the
+	 *            multiplication and division signs. None of them is special
+	 *            in a regex.
+	 * @param sharing
+	 *            the probability that a word extends a prefix of an earlier
+	 *            word, i.e. how deep the tree is
+	 * @return the words, unsorted
+	 */
+	static List<String> generate(final int size, final int alphabet,
+			final double sharing) {
+		final Random random = new Random(SEED);
+		final List<String> vocabulary = new ArrayList<String>(size);
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			sb.setLength(0);
+			if (!vocabulary.isEmpty() && random.nextDouble() < sharing) {
+				final String earlier = vocabulary.get(random.nextInt(vocabulary
+						.size()));
+				sb.append(earlier, 0, 1 + random.nextInt(earlier.length()));
+				appendRandom(sb, random, alphabet, 1 + random.nextInt(6));
+			}
+			else {
+				appendRandom(sb, random, alphabet, 3 + random.nextInt(8));
+			}
+			vocabulary.add(sb.toString());
+		}
+		return vocabulary;
+	}
+
+	/**
+	 * Generates a text of words of the vocabulary and random words, separated
+	 * by blanks.
+	 * 
+	 * @param vocabulary
+	 *            the words to take from
+	 * @param alphabet
+	 *            the alphabet of the random words
+	 * @param length
+	 *            the approximate length of the text
+	 * @return the text
+	 */
+	static String text(final List<String> vocabulary, final int alphabet,
+			final int length) {
+		final Random random = new Random(SEED + 1);
+		final StringBuilder sb = new StringBuilder(length + 16);
+		while (sb.length() < length) {
+			if (random.nextInt(4) == 0) {
+				sb.append(vocabulary.get(random.nextInt(vocabulary.size())));
+			}
+			else {
+				appendRandom(sb, random, alphabet, 3 + random.nextInt(8));
+			}
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+
+	private static void appendRandom(final StringBuilder sb,
+			final Random random, final int alphabet, final int length) {
+		for (int i = 0; i < length; i++) {
+			final int c = random.nextInt(alphabet);
+			if (c < 26) {
+				sb.append((char) ('a' + c));
+				continue;
+			}
+			char letter = (char) ('\u00c0' + c - 26);
+			// skip the multiplication and division signs
+			if (letter >= '\u00d7') {
+				++letter;
+			}
+			if (letter >= '\u00f7') {
+				++letter;
+			}
+			sb.append(letter);
+		}
+	}
+}
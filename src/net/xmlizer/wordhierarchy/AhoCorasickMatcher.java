@@ -0,0 +1,407 @@
+package net.xmlizer.wordhierarchy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Finds all words of a word tree in a text in a single pass (Aho-Corasick).
+ * 
+ * The tree is expanded into one state per character of its words. States are
+ * numbered breadth-first, so the transitions of each state are a contiguous,
+ * sorted range and transition j always leads to state j + 1. Failure links
+ * point to the state of the longest proper suffix that is also a prefix of a
+ * word, so the text never has to be rescanned.
+ */
+public final class AhoCorasickMatcher {
+
+	/**
+	 * Which occurrences of words are reported.
+	 */
+	public enum Mode {
+		/** All occurrences, including overlapping and nested ones. */
+		OVERLAPPING,
+		/**
+		 * Non-overlapping occurrences: the leftmost one, and of those starting
+		 * there the longest one, as with an alternation of all words in a
+		 * POSIX regex.
+		 */
+		LEFTMOST_LONGEST
+	}
+
+	/**
+	 * Receives the occurrences found by
+	 * {@link AhoCorasickMatcher#match(CharSequence, Mode, MatchListener)}.
+	 */
+	public interface MatchListener {
+		/**
+		 * Called for each occurrence of a word.
+		 * 
+		 * @param start
+		 *            the index of the first character of the occurrence
+		 * @param end
+		 *            the index after the last character of the occurrence
+		 */
+		void match(int start, int end);
+	}
+
+	/** Root transitions for characters below this limit are looked up directly. */
+	private static final int DENSE_LIMIT = 256;
+
+	/** State s has the transitions transitionStart[s]..transitionStart[s + 1]. */
+	private final int[] transitionStart;
+	private final char[] transitionChars;
+	private final int[] rootTransitions;
+	private final int[] failure;
+	private final int[] depth;
+	/** The deepest state on the failure chain that ends a word, or -1. */
+	private final int[] output;
+	/** The length of the longest word. */
+	private final int maxDepth;
+
+	private AhoCorasickMatcher(final int[] theTransitionStart,
+			final char[] theTransitionChars, final int[] theFailure,
+			final int[] theDepth, final int[] theOutput) {
+		transitionStart = theTransitionStart;
+		transitionChars = theTransitionChars;
+		failure = theFailure;
+		depth = theDepth;
+		output = theOutput;
+		int max = 0;
+		for (final int d : depth) {
+			max = Math.max(max, d);
+		}
+		maxDepth = max;
+		rootTransitions = new int[DENSE_LIMIT];
+		Arrays.fill(rootTransitions, -1);
+		for (int j = transitionStart[0]; j < transitionStart[1]; j++) {
+			if (transitionChars[j] < DENSE_LIMIT) {
+				rootTransitions[transitionChars[j]] = j + 1;
+			}
+		}
+	}
+
+	/**
+	 * Compiles a matcher for the words of the given tree. The empty word is
+	 * never reported.
+	 * 
+	 * @param root
+	 *            the root of the word tree
+	 * @return the matcher
+	 */
+	public static AhoCorasickMatcher of(final Word root) {
+		final int[] labelLength = new int[1];
+		root.processAll(new AbstractWordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				if (word.hasWord()) {
+					labelLength[0] += word.getWordLength();
+				}
+				return true;
+			}
+		});
+		final int size = labelLength[0] + 1;
+		final int[] transitionStart = new int[size + 1];
+		final char[] transitionChars = new char[size - 1];
+		final int[] failure = new int[size];
+		final int[] depth = new int[size];
+		final int[] output = new int[size];
+		// the node and the characters of its word consumed in each state
+		final Word[] nodes = new Word[size];
+		final int[] offsets = new int[size];
+		final boolean[] ends = new boolean[size];
+		nodes[0] = root;
+		output[0] = -1;
+		int transitions = 0;
+		for (int s = 0; s < size; s++) {
+			transitionStart[s] = transitions;
+			final Word node = nodes[s];
+			final int offset = offsets[s];
+			if (offset < node.getWordLength()) {
+				transitionChars[transitions] = node.charAt(offset);
+				nodes[++transitions] = node;
+				depth[transitions] = depth[s] + 1;
+				offsets[transitions] = offset + 1;
+				ends[transitions] = offset + 1 == node.getWordLength()
+						&& node.isComplete();
+			}
+			else {
+				for (final Word child : Word.asSortedList(node.getChildren())) {
+					transitionChars[transitions] = child.charAt(0);
+					nodes[++transitions] = child;
+					depth[transitions] = depth[s] + 1;
+					offsets[transitions] = 1;
+					ends[transitions] = child.getWordLength() == 1
+							&& child.isComplete();
+				}
+			}
+			// free the nodes as early as possible
+			nodes[s] = null;
+		}
+		transitionStart[size] = transitions;
+		final AhoCorasickMatcher matcher = new AhoCorasickMatcher(
+				transitionStart, transitionChars, failure, depth, output);
+		// parents precede their children in breadth-first order
+		for (int s = 0; s < size; s++) {
+			for (int j = transitionStart[s]; j < transitionStart[s + 1]; j++) {
+				final int t = j + 1;
+				if (s != 0) {
+					int f = failure[s];
+					int next;
+					while ((next = matcher.step(f, transitionChars[j])) == -1
+							&& f != 0) {
+						f = failure[f];
+					}
+					failure[t] = next == -1 ? 0 : next;
+				}
+				output[t] = ends[t] ? t : output[failure[t]];
+			}
+		}
+		return matcher;
+	}
+
+	/**
+	 * Returns the state reached from state by c, or -1 if there is no such
+	 * transition.
+	 */
+	private int step(final int state, final char c) {
+		if (state == 0 && c < DENSE_LIMIT) {
+			return rootTransitions[c];
+		}
+		int low = transitionStart[state];
+		int high = transitionStart[state + 1] - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (transitionChars[mid] < c) {
+				low = mid + 1;
+			}
+			else if (transitionChars[mid] > c) {
+				high = mid - 1;
+			}
+			else {
+				return mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reports the occurrences of all words in text to listener, in the order
+	 * of their end.
+	 * 
+	 * @param text
+	 *            the text to scan
+	 * @param mode
+	 *            which occurrences to report
+	 * @param listener
+	 *            receives the occurrences
+	 */
+	public void match(final CharSequence text, final Mode mode,
+			final MatchListener listener) {
+		// leftmost-longest: the longest occurrence found so far for each start
+		// from next on, in a ring buffer. Since no occurrence can start before
+		// the suffix matched by the current state, all starts before it are
+		// decided and at most maxDepth starts are pending.
+		final int[] longestEnd = mode == Mode.LEFTMOST_LONGEST ? new int[Integer
+				.highestOneBit(Math.max(1, maxDepth)) << 1] : null;
+		final int mask = longestEnd == null ? 0 : longestEnd.length - 1;
+		int next = 0;
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			int target;
+			while ((target = step(state, c)) == -1 && state != 0) {
+				state = failure[state];
+			}
+			state = target == -1 ? 0 : target;
+			final int end = i + 1;
+			if (mode == Mode.OVERLAPPING) {
+				for (int o = output[state]; o != -1; o = output[failure[o]]) {
+					listener.match(end - depth[o], end);
+				}
+				continue;
+			}
+			for (int o = output[state]; o != -1; o = output[failure[o]]) {
+				if (end - depth[o] >= next) {
+					longestEnd[end - depth[o] & mask] = end;
+				}
+			}
+			next = reportLeftmostLongest(longestEnd, next, end - depth[state],
+					listener);
+		}
+		if (mode == Mode.LEFTMOST_LONGEST) {
+			reportLeftmostLongest(longestEnd, next, text.length(), listener);
+		}
+	}
+
+	/**
+	 * Reports the leftmost-longest occurrences starting from next on before
+	 * decided, clearing their entries in longestEnd.
+	 * 
+	 * @return the first start that is allowed and not decided yet
+	 */
+	private static int reportLeftmostLongest(final int[] longestEnd,
+			int next, final int decided, final MatchListener listener) {
+		final int mask = longestEnd.length - 1;
+		while (next < decided) {
+			final int end = longestEnd[next & mask];
+			if (end == 0) {
+				++next;
+				continue;
+			}
+			listener.match(next, end);
+			// occurrences overlapping this one are not allowed
+			while (next < end) {
+				longestEnd[next++ & mask] = 0;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Receives the occurrences found by
+	 * {@link AhoCorasickMatcher#match(ByteBuffer, int, int, int, StateListener)}.
+	 */
+	interface StateListener {
+		/**
+		 * Called for each occurrence of a word.
+		 * 
+		 * @param state
+		 *            the state ending the word, see {@link #getWord(int)}
+		 * @param end
+		 *            the index after the last byte of the occurrence
+		 */
+		void match(int state, int end);
+	}
+
+	/**
+	 * Reports all occurrences of words in bytes[from..to), reading each byte
+	 * as the char of the same value, i.e. as ISO-8859-1. Only occurrences
+	 * ending after reportFrom are reported, so scans of overlapping ranges
+	 * don't report the same occurrence twice.
+	 * 
+	 * @param bytes
+	 *            the bytes to scan, read with absolute gets
+	 * @param from
+	 *            the index to start scanning at
+	 * @param reportFrom
+	 *            the index after which occurrences have to end to be reported
+	 * @param to
+	 *            the index to stop scanning at
+	 * @param listener
+	 *            receives the occurrences
+	 */
+	void match(final ByteBuffer bytes, final int from, final int reportFrom,
+			final int to, final StateListener listener) {
+		int state = 0;
+		for (int i = from; i < to; i++) {
+			final char c = (char) (bytes.get(i) & 0xff);
+			int target;
+			while ((target = step(state, c)) == -1 && state != 0) {
+				state = failure[state];
+			}
+			state = target == -1 ? 0 : target;
+			if (i >= reportFrom) {
+				for (int o = output[state]; o != -1; o = output[failure[o]]) {
+					listener.match(o, i + 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of states.
+	 */
+	int size() {
+		return depth.length;
+	}
+
+	/**
+	 * Returns whether a word ends in state.
+	 */
+	boolean endsWord(final int state) {
+		return output[state] == state;
+	}
+
+	/**
+	 * Returns the length of the longest word.
+	 */
+	int getMaxLength() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns the word leading to state.
+	 * 
+	 * @param state
+	 *            the state to return the word for
+	 * @return the characters of the transitions from the root to state
+	 */
+	String getWord(final int state) {
+		final char[] word = new char[depth[state]];
+		for (int t = state; t != 0; t = parent(t)) {
+			word[depth[t] - 1] = transitionChars[t - 1];
+		}
+		return new String(word);
+	}
+
+	/**
+	 * Returns the state with the transition to t, i.e. the state whose range
+	 * of transitions contains t - 1.
+	 */
+	private int parent(final int t) {
+		int low = 0;
+		int high = depth.length - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (transitionStart[mid] <= t - 1) {
+				low = mid;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the occurrences of all words in text, in the order of their end.
+	 * 
+	 * @param text
+	 *            the text to scan
+	 * @param mode
+	 *            which occurrences to return
+	 * @return the occurring words
+	 */
+	public List<String> findAll(final CharSequence text, final Mode mode) {
+		final List<String> result = new ArrayList<String>();
+		match(text, mode, new MatchListener() {
+			@Override
+			public void match(final int start, final int end) {
+				result.add(text.subSequence(start, end).toString());
+			}
+		});
+		return result;
+	}
+}
@@ -0,0 +1,60 @@
+package net.xmlizer.wordhierarchy;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * JFR event recorded for each word tree built by {@link WordHierarchyBuilder},
+ * with the number of words inserted in each of the ways of
+ * {@link WordHierarchyBuilder.Insertion}.
+ */
+@Name("net.xmlizer.wordhierarchy.Build")
+@Label("Word Tree Build")
+@Category("Word Hierarchy")
+@Description("Building a word tree from a vocabulary")
+class BuildEvent extends Event {
+	@Label("Builder")
+	String builder;
+
+	@Label("Words")
+	long words;
+
+	@Label("Extended")
+	@Description("Words added as a new leaf")
+	long extend;
+
+	@Label("Shortened")
+	@Description("Words ending within a node, which is split")
+	long shorten;
+
+	@Label("Split")
+	@Description("Nodes split to add the rest of a word as a new leaf")
+	long split;
+
+	@Label("Completed")
+	@Description("Words ending exactly in an existing node")
+	long complete;
+}
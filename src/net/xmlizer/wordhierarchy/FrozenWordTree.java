@@ -0,0 +1,552 @@
+package net.xmlizer.wordhierarchy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Immutable, compact representation of a finished word tree.
+ * 
+ * The nodes are numbered in breadth-first order, so the children of each node
+ * occupy a contiguous range of node numbers. All words are stored in one
+ * shared char array. A node costs three ints plus a bit instead of a
+ * {@link Word} with its set of children.
+ * 
+ * {@link WordProcessor}s run over the tree through a few cursors that are
+ * moved along the index arrays, see {@link #processAll(WordProcessor)}.
+ * 
+ * A frozen tree can be written to a binary snapshot file with
+ * {@link #write(Path)}. {@link #map(Path)} memory-maps such a file and serves
+ * the tree directly from it without deserializing any node.
+ */
+public final class FrozenWordTree {
+	/** "WHTR" */
+	private static final int MAGIC = 0x57485452;
+	private static final int VERSION = 2;
+	/**
+	 * magic, version, flags, node count, label length, reserved (ints) and
+	 * checksum (long)
+	 */
+	private static final int HEADER_SIZE = 6 * 4 + 8;
+	private static final int FLAG_ANONYMOUS_ROOT = 1;
+
+	/** The words of all nodes, concatenated in node order. */
+	private final CharBuffer labels;
+	/** Node i's word is labels[labelOffsets[i]..labelOffsets[i + 1]). */
+	private final IntBuffer labelOffsets;
+	/** Node i's children are the nodes firstChild[i]..firstChild[i + 1]. */
+	private final IntBuffer firstChild;
+	/** Bit i of the longs is set if node i is complete. */
+	private final LongBuffer complete;
+	/** Whether node 0 is a root without a word of its own. */
+	private final boolean anonymousRoot;
+	/** The number of complete words of each subtree, counted on demand. */
+	private int[] wordCounts;
+
+	private FrozenWordTree(final CharBuffer theLabels,
+			final IntBuffer theLabelOffsets, final IntBuffer theFirstChild,
+			final LongBuffer theComplete, final boolean theAnonymousRoot) {
+		labels = theLabels;
+		labelOffsets = theLabelOffsets;
+		firstChild = theFirstChild;
+		complete = theComplete;
+		anonymousRoot = theAnonymousRoot;
+	}
+
+	/**
+	 * Converts the given word and its children into a frozen tree. Children
+	 * are stored in sorted order.
+	 * 
+	 * @param root
+	 *            the word to convert, usually the root of a word tree
+	 * @return the frozen tree
+	 */
+	public static FrozenWordTree of(final Word root) {
+		// breadth-first order, so siblings end up next to each other
+		final List<Word> nodes = new ArrayList<Word>();
+		nodes.add(root);
+		int labelLength = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			final Word node = nodes.get(i);
+			if (node.hasWord()) {
+				labelLength += node.getWordLength();
+			}
+			nodes.addAll(Word.asSortedList(node.getChildren()));
+		}
+		final int size = nodes.size();
+		final StringBuilder labels = new StringBuilder(labelLength);
+		final int[] labelOffsets = new int[size + 1];
+		final int[] firstChild = new int[size + 1];
+		final BitSet complete = new BitSet(size);
+		int next = 1;
+		for (int i = 0; i < size; i++) {
+			final Word node = nodes.get(i);
+			labelOffsets[i] = labels.length();
+			if (node.hasWord()) {
+				node.appendWordTo(labels);
+			}
+			complete.set(i, node.isComplete());
+			firstChild[i] = next;
+			next += node.getChildren().size();
+		}
+		labelOffsets[size] = labels.length();
+		firstChild[size] = next;
+		final char[] labelChars = new char[labels.length()];
+		labels.getChars(0, labelChars.length, labelChars, 0);
+		return new FrozenWordTree(CharBuffer.wrap(labelChars),
+				IntBuffer.wrap(labelOffsets), IntBuffer.wrap(firstChild),
+				LongBuffer.wrap(Arrays.copyOf(
+						complete.toLongArray(), bitWords(size))),
+				!root.hasWord());
+	}
+
+	/**
+	 * Writes this tree to a binary snapshot file: a versioned header with a
+	 * CRC32 checksum of the remainder, followed by the node tables and the
+	 * words.
+	 * 
+	 * @param file
+	 *            the file to write, is replaced if it exists
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(final Path file) throws IOException {
+		final int size = size();
+		final ByteBuffer[] sections = new ByteBuffer[] {
+				ByteBuffer.allocate(4 * (size + 1)),
+				ByteBuffer.allocate(4 * (size + 1)),
+				ByteBuffer.allocate(8 * bitWords(size)),
+				ByteBuffer.allocate(2 * labels.limit()) };
+		sections[0].asIntBuffer().put(labelOffsets.duplicate());
+		sections[1].asIntBuffer().put(firstChild.duplicate());
+		sections[2].asLongBuffer().put(complete.duplicate());
+		sections[3].asCharBuffer().put(labels.duplicate());
+		final CRC32 checksum = new CRC32();
+		for (final ByteBuffer section : sections) {
+			checksum.update(section.duplicate());
+		}
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION)
+				.putInt(anonymousRoot ? FLAG_ANONYMOUS_ROOT : 0).putInt(size)
+				.putInt(labels.limit()).putInt(0).putLong(checksum.getValue());
+		header.flip();
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			for (final ByteBuffer section : sections) {
+				while (section.hasRemaining()) {
+					channel.write(section);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Memory-maps a snapshot file written by {@link #write(Path)} after
+	 * verifying its checksum.
+	 * 
+	 * @see #map(Path, boolean)
+	 */
+	public static FrozenWordTree map(final Path file) throws IOException {
+		return map(file, true);
+	}
+
+	/**
+	 * Memory-maps a snapshot file written by {@link #write(Path)}. The nodes
+	 * are read from the file on demand, so this takes constant time unless the
+	 * checksum is verified, which reads the whole file once.
+	 * 
+	 * @param file
+	 *            the snapshot file
+	 * @param verify
+	 *            whether to verify the checksum
+	 * @return the tree stored in the file
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a valid snapshot
+	 */
+	public static FrozenWordTree map(final Path file, final boolean verify)
+			throws IOException {
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(file + " is not a word tree snapshot");
+			}
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to be mapped");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a word tree snapshot");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException(file + " has unsupported version "
+					+ buffer.getInt(4));
+		}
+		final boolean anonymousRoot = (buffer.getInt(8) & FLAG_ANONYMOUS_ROOT) != 0;
+		final int size = buffer.getInt(12);
+		final int labelLength = buffer.getInt(16);
+		final long expectedChecksum = buffer.getLong(24);
+		if (size < 1 || labelLength < 0) {
+			throw new IOException(file + " is truncated or corrupt");
+		}
+		// in long, so a corrupt header cannot overflow to the file size
+		final long[] sectionSizes = new long[] { 4L * (size + 1L),
+				4L * (size + 1L), 8L * ((size + 63L) >>> 6),
+				2L * labelLength };
+		long fileSize = HEADER_SIZE;
+		for (final long sectionSize : sectionSizes) {
+			fileSize += sectionSize;
+		}
+		if (fileSize != buffer.capacity()) {
+			throw new IOException(file + " is truncated or corrupt");
+		}
+		// all sizes fit into an int now, since their sum is the capacity
+		final ByteBuffer[] sections = new ByteBuffer[sectionSizes.length];
+		int position = HEADER_SIZE;
+		for (int i = 0; i < sections.length; i++) {
+			buffer.limit(position + (int) sectionSizes[i]).position(position);
+			sections[i] = buffer.slice();
+			position += (int) sectionSizes[i];
+		}
+		if (verify) {
+			final CRC32 checksum = new CRC32();
+			for (final ByteBuffer section : sections) {
+				checksum.update(section.duplicate());
+			}
+			if (checksum.getValue() != expectedChecksum) {
+				throw new IOException(file + " has a wrong checksum");
+			}
+		}
+		return new FrozenWordTree(sections[3].asCharBuffer(),
+				sections[0].asIntBuffer(), sections[1].asIntBuffer(),
+				sections[2].asLongBuffer(), anonymousRoot);
+	}
+
+	/**
+	 * Returns the number of longs needed for one bit per node.
+	 */
+	private static int bitWords(final int size) {
+		return (size + 63) >>> 6;
+	}
+
+	/**
+	 * Returns the number of nodes in this tree, including the root.
+	 * 
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return labelOffsets.limit() - 1;
+	}
+
+	/**
+	 * Returns a view of the root of this tree.
+	 * 
+	 * @return the root
+	 */
+	public WordNode getRoot() {
+		return new Node(0);
+	}
+
+	/**
+	 * Processes all words of this tree in sorted order.
+	 * 
+	 * The tree is traversed along the index arrays with one cursor per level,
+	 * which is moved from sibling to sibling. A node passed to wp thus only
+	 * stays valid until its next sibling is processed, whereas the nodes of
+	 * the current path stay valid until their postChildren.
+	 * 
+	 * @param wp
+	 *            the WordProcessor to process the words
+	 * @see TraversalEvent
+	 */
+	public void processAll(final WordProcessor<WordNode> wp) {
+		final TraversalEvent event = new TraversalEvent();
+		event.begin();
+		Node[] cursors = new Node[16];
+		// the next child to process of the node at each level of the path
+		int[] next = new int[16];
+		cursors[0] = new Node(0);
+		long processed = 0;
+		int depth = 0;
+		while (true) {
+			final Node cursor = cursors[depth];
+			wp.processWord(cursor);
+			++processed;
+			if (firstChild.get(cursor.node) < firstChild.get(cursor.node + 1)) {
+				wp.preChildren(cursor);
+				next[depth] = firstChild.get(cursor.node);
+				if (++depth == cursors.length) {
+					cursors = Arrays.copyOf(cursors, 2 * depth);
+					next = Arrays.copyOf(next, 2 * depth);
+				}
+				if (cursors[depth] == null) {
+					cursors[depth] = new Node(0);
+				}
+			}
+			// ascend until there is a next sibling
+			while (depth > 0
+					&& next[depth - 1] == firstChild
+							.get(cursors[depth - 1].node + 1)) {
+				wp.postChildren(cursors[--depth]);
+			}
+			if (depth == 0) {
+				break;
+			}
+			cursors[depth].node = next[depth - 1]++;
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.processor = wp.getClass();
+			event.sorted = true;
+			event.prune = false;
+			event.words = processed;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Checks whether this tree contains a word, in time linear in its length.
+	 * 
+	 * @param theWord
+	 *            the word to look up
+	 * @return true if theWord is a complete word of this tree
+	 * @see Word#contains(CharSequence)
+	 */
+	public boolean contains(final CharSequence theWord) {
+		return Word.contains(getRoot(), theWord);
+	}
+
+	/**
+	 * Returns the words of this tree starting with a prefix, in sorted order.
+	 * 
+	 * @param prefix
+	 *            the prefix of the words, the empty string for all words
+	 * @return the words starting with prefix
+	 * @see Word#completions(String)
+	 */
+	public Iterator<String> completions(final String prefix) {
+		return Word.completions(getRoot(), prefix);
+	}
+
+	/**
+	 * Returns the words of this tree in sorted order.
+	 * 
+	 * @return the words of this tree
+	 * @see Word#words()
+	 */
+	public Stream<String> words() {
+		return Word.words(getRoot());
+	}
+
+	/**
+	 * Checks whether this tree contains exactly the words of a vocabulary.
+	 * 
+	 * @param vocabulary
+	 * @return true if the words of this tree are those of the vocabulary
+	 * @see Word#testIt(Collection)
+	 */
+	public boolean testIt(final Collection<String> vocabulary) {
+		final TestWordProcessor twp = new TestWordProcessor(vocabulary);
+		processAll(twp);
+		return twp.resultOk();
+	}
+
+	/**
+	 * Stringifies this tree. The order of the children is reproducible.
+	 * 
+	 * @return this tree stringified
+	 * @see Word#myToStringSorted()
+	 */
+	public String myToString() {
+		final StringifyWordProcessor wp = new StringifyWordProcessor();
+		processAll(wp);
+		return wp.getResult();
+	}
+
+	@Override
+	public String toString() {
+		return myToString();
+	}
+
+	private synchronized int[] getWordCounts() {
+		if (wordCounts == null) {
+			final int[] counts = new int[size()];
+			// children have greater numbers than their parents
+			for (int node = counts.length - 1; node >= 0; node--) {
+				counts[node] = (complete.get(node >>> 6) & 1L << node) != 0 ? 1
+						: 0;
+				for (int child = firstChild.get(node); child < firstChild
+						.get(node + 1); child++) {
+					counts[node] += counts[child];
+				}
+			}
+			wordCounts = counts;
+		}
+		return wordCounts;
+	}
+
+	private String getWord(final int node) {
+		if (node == 0 && anonymousRoot) {
+			return null;
+		}
+		return labels.subSequence(labelOffsets.get(node),
+				labelOffsets.get(node + 1)).toString();
+	}
+
+	/**
+	 * Read-only view of one node of the frozen tree. It only consists of the
+	 * number of the node, which a traversal moves from node to node.
+	 */
+	private final class Node implements WordNode {
+		private int node;
+
+		Node(final int theNode) {
+			node = theNode;
+		}
+
+		@Override
+		public int getId() {
+			return node;
+		}
+
+		@Override
+		public String getWord() {
+			return FrozenWordTree.this.getWord(node);
+		}
+
+		@Override
+		public boolean hasWord() {
+			return node != 0 || !anonymousRoot;
+		}
+
+		@Override
+		public int getWordLength() {
+			return labelOffsets.get(node + 1) - labelOffsets.get(node);
+		}
+
+		@Override
+		public char charAt(final int index) {
+			return labels.get(labelOffsets.get(node) + index);
+		}
+
+		@Override
+		public StringBuilder appendWordTo(final StringBuilder sb) {
+			return sb.append(labels, labelOffsets.get(node),
+					labelOffsets.get(node + 1));
+		}
+
+		@Override
+		public void appendWordTo(final Appendable out) throws IOException {
+			out.append(labels, labelOffsets.get(node),
+					labelOffsets.get(node + 1));
+		}
+
+		@Override
+		public boolean isComplete() {
+			return (complete.get(node >>> 6) & 1L << node) != 0;
+		}
+
+		@Override
+		public long getWordCount() {
+			return getWordCounts()[node];
+		}
+
+		@Override
+		public List<WordNode> getChildren() {
+			final int first = firstChild.get(node);
+			final int size = firstChild.get(node + 1) - first;
+			return new AbstractList<WordNode>() {
+				@Override
+				public WordNode get(final int index) {
+					if (index < 0 || index >= size) {
+						throw new IndexOutOfBoundsException("index: "
+								+ index);
+					}
+					return new Node(first + index);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+
+		@Override
+		public WordNode getChild(final char c) {
+			// children are sorted, and thus by their leading character
+			int low = firstChild.get(node);
+			int high = firstChild.get(node + 1) - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final char midChar = labels.get(labelOffsets.get(mid));
+				if (midChar < c) {
+					low = mid + 1;
+				}
+				else if (midChar > c) {
+					high = mid - 1;
+				}
+				else {
+					return new Node(mid);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof Node && ((Node) o).node == node
+					&& ((Node) o).tree() == FrozenWordTree.this;
+		}
+
+		@Override
+		public int hashCode() {
+			return node;
+		}
+
+		private FrozenWordTree tree() {
+			return FrozenWordTree.this;
+		}
+	}
+}
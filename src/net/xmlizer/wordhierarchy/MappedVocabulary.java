@@ -0,0 +1,173 @@
+package net.xmlizer.wordhierarchy;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Streams the words of a UTF-8 encoded, newline-separated vocabulary file.
+ * 
+ * The file is memory-mapped in windows of up to 1 GB, so files of any size
+ * can be read. Lines are split directly in the mapped buffer; only the words
+ * themselves are created. Line endings may be "\n" or "\r\n". Empty lines are
+ * skipped.
+ */
+public final class MappedVocabulary implements Iterator<String>, Closeable {
+	private static final int WINDOW_SIZE = 1 << 30;
+
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer window;
+	/** Position of the window within the file. */
+	private long windowStart;
+	/** Position of the next line within the window. */
+	private int pos;
+	private byte[] line = new byte[256];
+	private String next;
+
+	private MappedVocabulary(final Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			size = channel.size();
+			map(0);
+			advance();
+		} catch (final IOException | RuntimeException e) {
+			// the caller never gets hold of the channel to close it
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the given vocabulary file. The file is closed when all words have
+	 * been read or when {@link #close()} is called.
+	 * 
+	 * @param file
+	 *            the vocabulary file
+	 * @return the words of the file
+	 * @throws IOException
+	 *             if the file cannot be opened or mapped
+	 */
+	public static MappedVocabulary open(final Path file) throws IOException {
+		return new MappedVocabulary(file);
+	}
+
+	/**
+	 * Returns the non-empty lines of a UTF-8 encoded stream, e.g. stdin, which
+	 * cannot be memory-mapped.
+	 * 
+	 * @param in
+	 *            the stream to read
+	 * @return the words of the stream
+	 */
+	public static Iterator<String> lines(final InputStream in) {
+		return new BufferedReader(new InputStreamReader(in,
+				StandardCharsets.UTF_8)).lines()
+				.filter(word -> !word.isEmpty()).iterator();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public String next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		final String result = next;
+		try {
+			advance();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return result;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		next = null;
+		window = null;
+		channel.close();
+	}
+
+	private void map(final long start) throws IOException {
+		windowStart = start;
+		pos = 0;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				Math.min(WINDOW_SIZE, size - start));
+	}
+
+	private void advance() throws IOException {
+		while (windowStart + pos < size) {
+			final int limit = window.limit();
+			int newline = pos;
+			while (newline < limit && window.get(newline) != '\n') {
+				++newline;
+			}
+			if (newline == limit && windowStart + limit < size) {
+				// the line continues beyond the window: start the next window
+				// at this line
+				if (pos == 0) {
+					throw new IOException("line longer than " + WINDOW_SIZE
+							+ " bytes at " + windowStart);
+				}
+				map(windowStart + pos);
+				continue;
+			}
+			int end = newline;
+			if (end > pos && window.get(end - 1) == '\r') {
+				--end;
+			}
+			final int length = end - pos;
+			if (length > 0) {
+				if (line.length < length) {
+					line = new byte[Math.max(length, 2 * line.length)];
+				}
+				window.position(pos);
+				window.get(line, 0, length);
+				next = new String(line, 0, length, StandardCharsets.UTF_8);
+				pos = newline + 1;
+				return;
+			}
+			pos = newline + 1;
+		}
+		close();
+	}
+}
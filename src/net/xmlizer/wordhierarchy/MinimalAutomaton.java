@@ -0,0 +1,627 @@
+package net.xmlizer.wordhierarchy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The minimal acyclic automaton (DAWG) accepting a set of words.
+ * 
+ * Unlike a word tree, which only shares common prefixes, the automaton also
+ * shares common suffixes: all states accepting the same set of endings are
+ * merged into one. Inflected forms like Euer, Eure, Eurer and unser, unsre,
+ * unsrer thus share the states of their endings.
+ * 
+ * The automaton is built incrementally from sorted words (Daciuk et al.):
+ * once a word is added, the states of the previous word beyond the common
+ * prefix can no longer change and are replaced by an equivalent state from
+ * the register, or registered themselves.
+ */
+public final class MinimalAutomaton {
+
+	/**
+	 * A state of the automaton. Its transitions are sorted by their labels.
+	 */
+	public static final class State {
+		private static final char[] NO_LABELS = new char[0];
+		private static final State[] NO_TARGETS = new State[0];
+
+		private char[] labels = NO_LABELS;
+		private State[] targets = NO_TARGETS;
+		private int transitionCount;
+		private boolean isFinal;
+		private int id = -1;
+
+		private State() {}
+
+		/**
+		 * Returns the number of the state. The start state is 0, the others
+		 * are numbered in depth-first order of their first occurrence.
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Returns whether a word ends in this state.
+		 */
+		public boolean isFinal() {
+			return isFinal;
+		}
+
+		public int getTransitionCount() {
+			return transitionCount;
+		}
+
+		public char getLabel(final int theTransition) {
+			return labels[theTransition];
+		}
+
+		public State getTarget(final int theTransition) {
+			return targets[theTransition];
+		}
+
+		/**
+		 * Returns the state reached by c, or null if there is no such
+		 * transition.
+		 */
+		public State step(final char c) {
+			final int i = Arrays.binarySearch(labels, 0, transitionCount, c);
+			return i < 0 ? null : targets[i];
+		}
+
+		private State addTransition(final char c) {
+			if (transitionCount == labels.length) {
+				labels = Arrays.copyOf(labels, Math.max(2, 2 * transitionCount));
+				targets = Arrays.copyOf(targets, labels.length);
+			}
+			labels[transitionCount] = c;
+			return targets[transitionCount++] = new State();
+		}
+
+		/**
+		 * Two states are equivalent if both or neither are final and their
+		 * transitions lead to the same states by the same labels. Only
+		 * registered states are compared, whose targets are registered and
+		 * therefore unique.
+		 */
+		@Override
+		public boolean equals(final Object theOther) {
+			if (!(theOther instanceof State)) {
+				return false;
+			}
+			final State other = (State) theOther;
+			if (isFinal != other.isFinal
+					|| transitionCount != other.transitionCount) {
+				return false;
+			}
+			for (int i = 0; i < transitionCount; i++) {
+				if (labels[i] != other.labels[i]
+						|| targets[i] != other.targets[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = isFinal ? 1 : 0;
+			for (int i = 0; i < transitionCount; i++) {
+				hash = 31 * hash + labels[i];
+				hash = 31 * hash + System.identityHashCode(targets[i]);
+			}
+			return hash;
+		}
+	}
+
+	/**
+	 * Visits the states of an automaton, like a {@link WordProcessor} visits
+	 * the nodes of a word tree. Each state is visited once, even if it is
+	 * reached by several transitions.
+	 */
+	public interface StateProcessor {
+		/**
+		 * Processes a state.
+		 * 
+		 * @param state
+		 * @return false to skip the states reached from this state
+		 */
+		boolean processState(final State state);
+
+		/**
+		 * Hook called before processing the states reached from this state.
+		 * 
+		 * @param state
+		 */
+		void preTransitions(final State state);
+
+		/**
+		 * Hook called after processing the states reached from this state.
+		 * 
+		 * @param state
+		 */
+		void postTransitions(final State state);
+	}
+
+	private final State start;
+	private final State[] states;
+
+	private MinimalAutomaton(final State theStart) {
+		start = theStart;
+		final List<State> numbered = new ArrayList<State>();
+		processAll(new StateProcessor() {
+			@Override
+			public boolean processState(final State state) {
+				state.id = numbered.size();
+				numbered.add(state);
+				return true;
+			}
+
+			@Override
+			public void preTransitions(final State state) {}
+
+			@Override
+			public void postTransitions(final State state) {}
+		});
+		states = numbered.toArray(new State[numbered.size()]);
+	}
+
+	/**
+	 * Builds the minimal automaton of sorted words.
+	 * 
+	 * @param sortedVocabularyIter
+	 *            the words in ascending order, duplicates are ignored
+	 * @return the automaton
+	 * @throws IllegalArgumentException
+	 *             if the words are not sorted
+	 */
+	public static MinimalAutomaton fromSorted(
+			final Iterator<String> sortedVocabularyIter) {
+		final Map<State, State> register = new HashMap<State, State>();
+		final State start = new State();
+		// the states of the previous word
+		State[] path = new State[16];
+		path[0] = start;
+		String previous = "";
+		while (sortedVocabularyIter.hasNext()) {
+			final String word = sortedVocabularyIter.next();
+			final int order = previous.compareTo(word);
+			if (order > 0) {
+				throw new IllegalArgumentException("vocabulary not sorted: "
+						+ previous + " > " + word);
+			}
+			if (order == 0 && word.length() > 0) {
+				continue;
+			}
+			int k = 0;
+			while (k < previous.length() && k < word.length()
+					&& previous.charAt(k) == word.charAt(k)) {
+				++k;
+			}
+			minimize(register, path, k, previous.length());
+			if (path.length <= word.length()) {
+				path = Arrays.copyOf(path, Math.max(2 * path.length,
+						word.length() + 1));
+			}
+			for (int i = k; i < word.length(); i++) {
+				path[i + 1] = path[i].addTransition(word.charAt(i));
+			}
+			path[word.length()].isFinal = true;
+			previous = word;
+		}
+		minimize(register, path, 0, previous.length());
+		return new MinimalAutomaton(start);
+	}
+
+	/**
+	 * Replaces the states path[from + 1..to] of the previous word, deepest
+	 * first, by equivalent registered states, or registers them.
+	 */
+	private static void minimize(final Map<State, State> register,
+			final State[] path, final int from, final int to) {
+		for (int i = to; i > from; i--) {
+			final State state = path[i];
+			final State equivalent = register.get(state);
+			if (equivalent != null) {
+				final State parent = path[i - 1];
+				parent.targets[parent.transitionCount - 1] = equivalent;
+			}
+			else {
+				register.put(state, state);
+			}
+		}
+	}
+
+	/**
+	 * Builds the minimal automaton of the words of a word tree.
+	 * 
+	 * @param root
+	 *            the root of the word tree
+	 * @return the automaton
+	 */
+	public static MinimalAutomaton of(final Word root) {
+		// a sorted traversal of the tree yields the words in ascending order
+		final List<String> words = new ArrayList<String>();
+		final StringBuilder path = new StringBuilder();
+		final Stack<Integer> lengths = new Stack<Integer>();
+		lengths.push(0);
+		root.processAll(new WordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				path.setLength(lengths.peek());
+				if (word.hasWord()) {
+					word.appendWordTo(path);
+				}
+				if (word.isComplete()) {
+					words.add(path.toString());
+				}
+				return true;
+			}
+
+			@Override
+			public void preChildren(final Word word) {
+				lengths.push(path.length());
+			}
+
+			@Override
+			public void postChildren(final Word word) {
+				lengths.pop();
+			}
+		}, true);
+		return fromSorted(words.iterator());
+	}
+
+	public State getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the number of states.
+	 */
+	public int size() {
+		return states.length;
+	}
+
+	/**
+	 * Returns the state with the given number.
+	 * 
+	 * @see State#getId()
+	 */
+	public State getState(final int theId) {
+		return states[theId];
+	}
+
+	/**
+	 * Returns the number of transitions.
+	 */
+	public int getTransitionCount() {
+		int count = 0;
+		for (final State state : states) {
+			count += state.transitionCount;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns whether the automaton accepts word.
+	 */
+	public boolean contains(final CharSequence word) {
+		State state = start;
+		for (int i = 0; i < word.length() && state != null; i++) {
+			state = state.step(word.charAt(i));
+		}
+		return state != null && state.isFinal;
+	}
+
+	/**
+	 * Visits the states depth-first, each once, following the transitions in
+	 * the order of their labels.
+	 * 
+	 * @param sp
+	 *            the processor to visit the states with
+	 */
+	public void processAll(final StateProcessor sp) {
+		final Map<State, Boolean> visited = new IdentityHashMap<State, Boolean>();
+		// the states whose transitions are being processed and the index of
+		// the next transition of each
+		final Deque<State> stack = new ArrayDeque<State>();
+		final Deque<int[]> next = new ArrayDeque<int[]>();
+		visited.put(start, Boolean.TRUE);
+		if (sp.processState(start) && start.transitionCount > 0) {
+			sp.preTransitions(start);
+			stack.push(start);
+			next.push(new int[1]);
+		}
+		while (!stack.isEmpty()) {
+			final State state = stack.peek();
+			final int[] transition = next.peek();
+			if (transition[0] == state.transitionCount) {
+				stack.pop();
+				next.pop();
+				sp.postTransitions(state);
+				continue;
+			}
+			final State target = state.targets[transition[0]++];
+			if (visited.put(target, Boolean.TRUE) == null
+					&& sp.processState(target) && target.transitionCount > 0) {
+				sp.preTransitions(target);
+				stack.push(target);
+				next.push(new int[1]);
+			}
+		}
+	}
+
+	/**
+	 * Generates a regex matching the words of the automaton.
+	 * 
+	 * Transitions to the same state are merged into a character class. Where
+	 * all paths from a state pass through a later state, e.g. the first state
+	 * of the endings shared by several stems, the alternatives up to that
+	 * state are grouped and the regex of the shared state is written once
+	 * after the group. Such a state is the immediate post-dominator of the
+	 * state, with a virtual end state following all final states.
+	 * 
+	 * @return the regex, which never matches if there are no words
+	 */
+	public String toRegex() {
+		if (start.transitionCount == 0 && !start.isFinal) {
+			return RegexWordProcessor.NOTHING;
+		}
+		return new RegexGenerator().generate();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (final State state : states) {
+			sb.append(state.id).append(state.isFinal ? " final" : "");
+			for (int i = 0; i < state.transitionCount; i++) {
+				sb.append(' ').append(state.labels[i]).append("->")
+						.append(state.targets[i].id);
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generates the regex of {@link #toRegex()}.
+	 */
+	private class RegexGenerator {
+		/** The number of the virtual end state. */
+		private final int end = states.length;
+		/** The immediate post-dominator of each state. */
+		private final int[] postDominator = new int[end + 1];
+		private final int[] depth = new int[end + 1];
+		/** The regexes of the paths from a state to a post-dominator of it. */
+		private final Map<Long, String> cache = new HashMap<Long, String>();
+		/** The regexes not yet cached that the current one is made of. */
+		private final List<Long> missing = new ArrayList<Long>();
+
+		RegexGenerator() {
+			postDominator[end] = -1;
+			// in depth-first postorder, all targets of a state precede it
+			final List<State> postorder = new ArrayList<State>();
+			processAll(new StateProcessor() {
+				@Override
+				public boolean processState(final State state) {
+					if (state.transitionCount == 0) {
+						postorder.add(state);
+					}
+					return true;
+				}
+
+				@Override
+				public void preTransitions(final State state) {}
+
+				@Override
+				public void postTransitions(final State state) {
+					postorder.add(state);
+				}
+			});
+			for (final State state : postorder) {
+				int dominator = state.isFinal || state.transitionCount == 0 ? end
+						: state.targets[0].id;
+				for (int i = 0; i < state.transitionCount; i++) {
+					dominator = commonDominator(dominator, state.targets[i].id);
+				}
+				postDominator[state.id] = dominator;
+				depth[state.id] = depth[dominator] + 1;
+			}
+		}
+
+		private int commonDominator(int a, int b) {
+			while (a != b) {
+				if (depth[a] >= depth[b]) {
+					a = postDominator[a];
+				}
+				else {
+					b = postDominator[b];
+				}
+			}
+			return a;
+		}
+
+		/**
+		 * Generates the regexes on an explicit stack instead of recursing
+		 * once per state. A regex is generated from the cached ones of the
+		 * states after it. If some of them are missing, they are pushed and
+		 * generated first, and the regex is generated again. Since the
+		 * automaton has no cycles, this ends.
+		 */
+		String generate() {
+			final Long root = key(0, end);
+			final Deque<Long> stack = new ArrayDeque<Long>();
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				final Long key = stack.peek();
+				if (cache.containsKey(key)) {
+					stack.pop();
+					continue;
+				}
+				missing.clear();
+				final String result = generate((int) (key / (end + 1)),
+						(int) (key % (end + 1)));
+				if (missing.isEmpty()) {
+					cache.put(key, result);
+					stack.pop();
+				}
+				else {
+					for (final Long m : missing) {
+						stack.push(m);
+					}
+				}
+			}
+			return cache.get(root);
+		}
+
+		private Long key(final int s, final int until) {
+			return (long) s * (end + 1) + until;
+		}
+
+		/**
+		 * Generates the regex of the paths from state s to its post-dominator
+		 * until, recording the regexes it is made of that are not cached yet
+		 * in {@link #missing}.
+		 */
+		private String generate(final int s, final int until) {
+			final StringBuilder sb = new StringBuilder();
+			if (postDominator[s] == until) {
+				appendAlternatives(sb, states[s], until);
+			}
+			else {
+				for (int u = s; u != until; u = postDominator[u]) {
+					sb.append(regex(u, postDominator[u]));
+				}
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Returns the cached regex of the paths from state s to its
+		 * post-dominator until, or records it as missing.
+		 */
+		private String regex(final int s, final int until) {
+			if (s == until) {
+				return "";
+			}
+			final Long key = key(s, until);
+			final String result = cache.get(key);
+			if (result == null) {
+				missing.add(key);
+				return "";
+			}
+			return result;
+		}
+
+		/**
+		 * Appends the alternatives leading from state to its post-dominator
+		 * join, one per target with the labels leading there as a character
+		 * class. Targets whose paths to join meet in the same state before
+		 * are grouped, if that shortens the regex, e.g. (?:Dein|Ihr)e[mnrs].
+		 */
+		private void appendAlternatives(final StringBuilder sb,
+				final State state, final int join) {
+			final Map<State, StringBuilder> classes = new LinkedHashMap<State, StringBuilder>();
+			for (int i = 0; i < state.transitionCount; i++) {
+				StringBuilder chars = classes.get(state.targets[i]);
+				if (chars == null) {
+					classes.put(state.targets[i], chars = new StringBuilder());
+				}
+				chars.append(state.labels[i]);
+			}
+			// the targets by the last state before join their paths pass
+			final Map<Integer, List<State>> groups = new LinkedHashMap<Integer, List<State>>();
+			for (final State target : classes.keySet()) {
+				int last = target.id;
+				while (last != join && postDominator[last] != join) {
+					last = postDominator[last];
+				}
+				List<State> group = groups.get(last);
+				if (group == null) {
+					groups.put(last, group = new ArrayList<State>());
+				}
+				group.add(target);
+			}
+			final List<String> alternatives = new ArrayList<String>();
+			for (final Map.Entry<Integer, List<State>> group : groups.entrySet()) {
+				final int last = group.getKey();
+				final List<String> separate = new ArrayList<String>();
+				final List<String> grouped = new ArrayList<String>();
+				for (final State target : group.getValue()) {
+					final String label = toClass(classes.get(target));
+					separate.add(label + regex(target.id, join));
+					grouped.add(label + regex(target.id, last));
+				}
+				final String tail = regex(last, join);
+				final int separateLength = String.join("|", separate).length();
+				final int groupedLength = String.join("|", grouped).length()
+						+ 5 + tail.length();
+				if (grouped.size() > 1 && groupedLength < separateLength) {
+					alternatives.add("(?:" + String.join("|", grouped) + ")"
+							+ tail);
+				}
+				else {
+					alternatives.addAll(separate);
+				}
+			}
+			if (alternatives.isEmpty()) {
+				return;
+			}
+			final boolean optional = state.isFinal;
+			if (alternatives.size() == 1) {
+				final String alternative = alternatives.get(0);
+				if (!optional) {
+					sb.append(alternative);
+				}
+				else if (isAtom(alternative)) {
+					sb.append(alternative).append('?');
+				}
+				else {
+					sb.append("(?:").append(alternative).append(")?");
+				}
+				return;
+			}
+			sb.append("(?:").append(String.join("|", alternatives))
+					.append(optional ? ")?" : ")");
+		}
+
+		private String toClass(final CharSequence chars) {
+			return chars.length() == 1 ? chars.toString() : "[" + chars + "]";
+		}
+
+		private boolean isAtom(final String regex) {
+			return regex.length() == 1 || regex.startsWith("[")
+					&& regex.indexOf(']') == regex.length() - 1;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package net.xmlizer.wordhierarchy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Splits the regex of a word tree into several regexes of limited length.
+ * 
+ * Subtrees whose regex is too long are split into their children, each
+ * prefixed with the word leading to it, and the word of the subtree itself if
+ * it is complete. The resulting pieces are distributed over as few shards as
+ * possible, largest first, each to the currently shortest shard, so the
+ * shards are of similar length. Together the shards match exactly the words
+ * of the tree.
+ */
+public final class RegexSharder {
+
+	private RegexSharder() {}
+
+	/**
+	 * Generates regexes of at most maxLength characters matching together the
+	 * words of a tree.
+	 * 
+	 * @param root
+	 *            the root of the word tree
+	 * @param maxLength
+	 *            the maximum length of each regex
+	 * @return the regexes, the longest first, none if the tree has no words
+	 * @throws IllegalArgumentException
+	 *             if a single word is longer than maxLength
+	 */
+	public static List<String> shard(final Word root, final int maxLength) {
+		if (root.getWordCount() == 0) {
+			// no regex matches nothing, unlike the empty one
+			return new ArrayList<String>();
+		}
+		final Map<Word, Integer> lengths = measure(root);
+		final List<String> pieces = new ArrayList<String>();
+		// the subtrees to split and the words leading to them
+		final Deque<Word> words = new ArrayDeque<Word>();
+		final Deque<String> prefixes = new ArrayDeque<String>();
+		words.push(root);
+		prefixes.push("");
+		while (!words.isEmpty()) {
+			final Word word = words.pop();
+			final String prefix = prefixes.pop();
+			if (prefix.length() + lengths.get(word) <= maxLength) {
+				final RegexWordProcessor wp = new RegexWordProcessor();
+				word.processAll(wp, true);
+				pieces.add(prefix + wp.getResult());
+				continue;
+			}
+			final String path = word.hasWord() ? prefix + word.getWord()
+					: prefix;
+			if (word.isComplete()) {
+				if (path.length() > maxLength) {
+					throw new IllegalArgumentException("word longer than "
+							+ maxLength + ": " + path);
+				}
+				pieces.add(path);
+			}
+			final List<Word> children = Word.asSortedList(word.getChildren());
+			for (int i = children.size() - 1; i >= 0; i--) {
+				words.push(children.get(i));
+				prefixes.push(path);
+			}
+		}
+		return pack(pieces, maxLength);
+	}
+
+	/**
+	 * Returns the length of the regex of each subtree.
+	 * 
+	 * The regex of a subtree is the same, whether it is generated on its own
+	 * or as part of the regex of the whole tree, so the lengths are measured
+	 * in a single pass over the whole tree.
+	 */
+	private static Map<Word, Integer> measure(final Word root) {
+		final Map<Word, Integer> lengths = new IdentityHashMap<Word, Integer>();
+		final int[] count = new int[1];
+		final Appendable counter = new Appendable() {
+			@Override
+			public Appendable append(final CharSequence csq) {
+				count[0] += csq.length();
+				return this;
+			}
+
+			@Override
+			public Appendable append(final CharSequence csq, final int start,
+					final int end) {
+				count[0] += end - start;
+				return this;
+			}
+
+			@Override
+			public Appendable append(final char c) {
+				++count[0];
+				return this;
+			}
+		};
+		final RegexWordProcessor regex = new RegexWordProcessor(counter);
+		final Map<Word, Integer> starts = new IdentityHashMap<Word, Integer>();
+		root.processAll(new WordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				regex.processWord(word);
+				// the start of the word, after the separator
+				final int start = word.hasWord() ? count[0]
+						- word.getWordLength() : 0;
+				if (word.getChildren().isEmpty()) {
+					lengths.put(word, count[0] - start);
+				}
+				else {
+					starts.put(word, start);
+				}
+				return true;
+			}
+
+			@Override
+			public void preChildren(final Word word) {
+				regex.preChildren(word);
+			}
+
+			@Override
+			public void postChildren(final Word word) {
+				regex.postChildren(word);
+				lengths.put(word, count[0] - starts.remove(word));
+			}
+		}, true);
+		return lengths;
+	}
+
+	/**
+	 * Distributes the pieces over as few shards as possible, each piece to
+	 * the shortest shard, largest first.
+	 */
+	private static List<String> pack(final List<String> pieces,
+			final int maxLength) {
+		final List<Integer> order = new ArrayList<Integer>();
+		long total = 0;
+		for (int i = 0; i < pieces.size(); i++) {
+			order.add(i);
+			total += pieces.get(i).length() + 1;
+		}
+		Collections.sort(order, (a, b) -> pieces.get(b).length()
+				- pieces.get(a).length());
+		int shards = (int) Math.max(1, (total - 1) / maxLength + 1);
+		for (;; shards++) {
+			final List<List<Integer>> assigned = new ArrayList<List<Integer>>();
+			final int[] shardLengths = new int[shards];
+			// the shards by length, the first one among equally long ones
+			final PriorityQueue<Integer> shortest = new PriorityQueue<Integer>(
+					shards, (a, b) -> shardLengths[a] != shardLengths[b] ? Integer
+							.compare(shardLengths[a], shardLengths[b]) : a - b);
+			for (int s = 0; s < shards; s++) {
+				assigned.add(new ArrayList<Integer>());
+				shardLengths[s] = -1;
+				shortest.add(s);
+			}
+			boolean fits = true;
+			for (final int piece : order) {
+				final int shard = shortest.poll();
+				// the piece and the "|" separating it from the previous one
+				shardLengths[shard] += pieces.get(piece).length() + 1;
+				if (shardLengths[shard] > maxLength) {
+					fits = false;
+					break;
+				}
+				assigned.get(shard).add(piece);
+				shortest.add(shard);
+			}
+			if (!fits) {
+				continue;
+			}
+			final List<String> result = new ArrayList<String>();
+			for (final List<Integer> shard : assigned) {
+				if (shard.isEmpty()) {
+					continue;
+				}
+				// keep the pieces in the order of the words
+				Collections.sort(shard);
+				final List<String> alternatives = new ArrayList<String>();
+				for (final int piece : shard) {
+					alternatives.add(pieces.get(piece));
+				}
+				result.add(String.join("|", alternatives));
+			}
+			Collections.sort(result, (a, b) -> b.length() - a.length());
+			return result;
+		}
+	}
+}
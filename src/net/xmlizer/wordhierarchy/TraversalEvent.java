@@ -0,0 +1,49 @@
+package net.xmlizer.wordhierarchy;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * JFR event recorded for each traversal by
+ * {@link Word#processAll(WordProcessor, boolean, boolean)}.
+ */
+@Name("net.xmlizer.wordhierarchy.Traversal")
+@Label("Word Tree Traversal")
+@Category("Word Hierarchy")
+@Description("Processing the words of a tree with a WordProcessor")
+class TraversalEvent extends Event {
+	@Label("Processor")
+	Class<?> processor;
+
+	@Label("Sorted")
+	boolean sorted;
+
+	@Label("Pruned")
+	boolean prune;
+
+	@Label("Words Processed")
+	long words;
+}
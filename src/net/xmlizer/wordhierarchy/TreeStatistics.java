@@ -0,0 +1,120 @@
+package net.xmlizer.wordhierarchy;
+
+import java.util.Arrays;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The shape and size of a word tree, e.g. to plan capacity or to spot
+ * degenerate vocabularies. Depths are counted in nodes below the root.
+ */
+public final class TreeStatistics {
+	private final long nodeCount;
+	private final long completeCount;
+	private final int maxDepth;
+	private final double averageDepth;
+	private final long[] fanOut;
+	private final long labelCharacters;
+	private final long retainedBytes;
+
+	TreeStatistics(final long theNodeCount, final long theCompleteCount,
+			final int theMaxDepth, final double theAverageDepth,
+			final long[] theFanOut, final long theLabelCharacters,
+			final long theRetainedBytes) {
+		nodeCount = theNodeCount;
+		completeCount = theCompleteCount;
+		maxDepth = theMaxDepth;
+		averageDepth = theAverageDepth;
+		fanOut = theFanOut;
+		labelCharacters = theLabelCharacters;
+		retainedBytes = theRetainedBytes;
+	}
+
+	/**
+	 * Collects the statistics of a tree in one traversal.
+	 * 
+	 * @param root
+	 *            the root of the tree
+	 * @return the statistics of the tree
+	 */
+	public static TreeStatistics of(final Word root) {
+		final StatisticsWordProcessor wp = new StatisticsWordProcessor();
+		root.processAll(wp);
+		return wp.getResult();
+	}
+
+	/**
+	 * @return the number of nodes including the root
+	 */
+	public long getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return the number of nodes that are complete words, i.e. the number of
+	 *         words of the tree
+	 */
+	public long getCompleteCount() {
+		return completeCount;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public double getAverageDepth() {
+		return averageDepth;
+	}
+
+	/**
+	 * @return the histogram of the number of children, i.e. the number of
+	 *         nodes with i children at index i. Its last element is the
+	 *         number of nodes with the most children.
+	 */
+	public long[] getFanOut() {
+		return fanOut.clone();
+	}
+
+	/**
+	 * @return the total length of the words of all nodes
+	 */
+	public long getLabelCharacters() {
+		return labelCharacters;
+	}
+
+	/**
+	 * @return the estimated heap retained by the tree on a 64-bit JVM with
+	 *         compressed references, including the cached regexes and the
+	 *         strings the words refer to
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "nodes: " + nodeCount + "\ncomplete: " + completeCount
+				+ "\nmax depth: " + maxDepth + "\naverage depth: "
+				+ String.format("%.2f", averageDepth) + "\nfan-out: "
+				+ Arrays.toString(fanOut) + "\nlabel characters: "
+				+ labelCharacters + "\nretained bytes: " + retainedBytes;
+	}
+}
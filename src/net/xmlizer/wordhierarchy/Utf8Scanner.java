@@ -0,0 +1,284 @@
+package net.xmlizer.wordhierarchy;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Finds the words of a word tree in UTF-8 encoded files without decoding
+ * them.
+ * 
+ * The words are encoded to UTF-8 and compiled into an
+ * {@link AhoCorasickMatcher} over bytes. Since UTF-8 is self-synchronizing,
+ * an encoded word can only match at character boundaries. Files are
+ * memory-mapped in chunks that are scanned on several threads. Each chunk
+ * also scans the bytes of the longest word before it, so no occurrence
+ * spanning a chunk boundary is lost, but it reports only the occurrences
+ * ending within the chunk itself.
+ */
+public final class Utf8Scanner {
+
+	/**
+	 * Receives the occurrences found by
+	 * {@link Utf8Scanner#scan(Path, int, MatchListener)}. It is called from
+	 * several threads at once and must be thread-safe.
+	 */
+	public interface MatchListener {
+		/**
+		 * Called for each occurrence of a word.
+		 * 
+		 * @param term
+		 *            the index of the word, see {@link Utf8Scanner#getTerm(int)}
+		 * @param start
+		 *            the offset of the first byte of the occurrence
+		 * @param end
+		 *            the offset after the last byte of the occurrence
+		 */
+		void match(int term, long start, long end);
+	}
+
+	/** The maximum number of bytes a chunk is mapped with at once. */
+	private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+	private final AhoCorasickMatcher matcher;
+	/** The term ending in each state, or -1. */
+	private final int[] termOfState;
+	private final String[] terms;
+	/** The number of bytes of each term. */
+	private final int[] termLengths;
+
+	private Utf8Scanner(final AhoCorasickMatcher theMatcher) {
+		matcher = theMatcher;
+		termOfState = new int[matcher.size()];
+		final List<String> theTerms = new ArrayList<String>();
+		for (int state = 0; state < termOfState.length; state++) {
+			if (matcher.endsWord(state)) {
+				termOfState[state] = theTerms.size();
+				theTerms.add(matcher.getWord(state));
+			}
+			else {
+				termOfState[state] = -1;
+			}
+		}
+		terms = new String[theTerms.size()];
+		termLengths = new int[theTerms.size()];
+		for (int term = 0; term < terms.length; term++) {
+			final String encoded = theTerms.get(term);
+			terms[term] = new String(
+					encoded.getBytes(StandardCharsets.ISO_8859_1),
+					StandardCharsets.UTF_8);
+			termLengths[term] = encoded.length();
+		}
+	}
+
+	/**
+	 * Compiles a scanner for the words of the given tree.
+	 * 
+	 * @param root
+	 *            the root of the word tree
+	 * @return the scanner
+	 */
+	public static Utf8Scanner of(final Word root) {
+		// a tree of the UTF-8 encoded words, each byte stored in a char
+		final List<String> encoded = new ArrayList<String>();
+		final StringBuilder path = new StringBuilder();
+		final Stack<Integer> lengths = new Stack<Integer>();
+		lengths.push(0);
+		root.processAll(new WordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				path.setLength(lengths.peek());
+				if (word.hasWord()) {
+					word.appendWordTo(path);
+					if (word.isComplete()) {
+						encoded.add(new String(path.toString().getBytes(
+								StandardCharsets.UTF_8),
+								StandardCharsets.ISO_8859_1));
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public void preChildren(final Word word) {
+				lengths.push(path.length());
+			}
+
+			@Override
+			public void postChildren(final Word word) {
+				lengths.pop();
+			}
+		});
+		return new Utf8Scanner(AhoCorasickMatcher.of(WordHierarchyBuilder
+				.createWordTree(encoded)));
+	}
+
+	/**
+	 * Returns the number of terms, i.e. of words of the tree.
+	 * 
+	 * @return the number of terms
+	 */
+	public int getTermCount() {
+		return terms.length;
+	}
+
+	/**
+	 * Returns a term by its index.
+	 * 
+	 * @param term
+	 *            the index of the term
+	 * @return the term
+	 */
+	public String getTerm(final int term) {
+		return terms[term];
+	}
+
+	/**
+	 * Counts the occurrences of each term in file.
+	 * 
+	 * @see #scan(Path, int, MatchListener)
+	 */
+	public long[] scan(final Path file, final int threads) throws IOException {
+		return scan(file, threads, null);
+	}
+
+	/**
+	 * Reports all occurrences of the terms in file, including overlapping
+	 * ones, and counts them.
+	 * 
+	 * @param file
+	 *            the UTF-8 encoded file to scan
+	 * @param threads
+	 *            the number of threads to scan with
+	 * @param listener
+	 *            receives the occurrences in no particular order, may be null
+	 * @return the number of occurrences of each term, indexed like
+	 *         {@link #getTerm(int)}
+	 * @throws IOException
+	 *             if the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             if threads is not positive
+	 */
+	public long[] scan(final Path file, final int threads,
+			final MatchListener listener) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"the number of threads must be positive: " + threads);
+		}
+		final int overlap = matcher.getMaxLength();
+		final long[] counts = new long[terms.length];
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final long chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE,
+					(size + threads - 1) / threads));
+			final ExecutorService executor = Executors
+					.newFixedThreadPool(threads);
+			try {
+				// the counts of each chunk are added as soon as it is done, so
+				// only those of the chunks being scanned are held at once
+				final CompletionService<long[]> chunks = new ExecutorCompletionService<long[]>(
+						executor);
+				int pending = 0;
+				for (long start = 0; start < size; start += chunkSize) {
+					chunks.submit(new Chunk(channel, start, Math.min(size,
+							start + chunkSize), overlap, listener));
+					++pending;
+				}
+				for (; pending > 0; pending--) {
+					final long[] chunkCounts = chunks.take().get();
+					for (int i = 0; i < counts.length; i++) {
+						counts[i] += chunkCounts[i];
+					}
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while scanning " + file, e);
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Scans the bytes start..end of a file.
+	 */
+	private class Chunk implements Callable<long[]> {
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+		private final int overlap;
+		private final MatchListener listener;
+
+		Chunk(final FileChannel theChannel, final long theStart,
+				final long theEnd, final int theOverlap,
+				final MatchListener theListener) {
+			channel = theChannel;
+			start = theStart;
+			end = theEnd;
+			overlap = theOverlap;
+			listener = theListener;
+		}
+
+		@Override
+		public long[] call() throws IOException {
+			final long[] counts = new long[terms.length];
+			final long mapStart = Math.max(0, start - overlap);
+			final MappedByteBuffer bytes = channel.map(
+					FileChannel.MapMode.READ_ONLY, mapStart, end - mapStart);
+			matcher.match(bytes, 0, (int) (start - mapStart),
+					(int) (end - mapStart),
+					new AhoCorasickMatcher.StateListener() {
+						@Override
+						public void match(final int state, final int matchEnd) {
+							final int term = termOfState[state];
+							counts[term]++;
+							if (listener != null) {
+								final long offset = mapStart + matchEnd;
+								listener.match(term, offset - termLengths[term],
+										offset);
+							}
+						}
+					});
+			return counts;
+		}
+	}
+}
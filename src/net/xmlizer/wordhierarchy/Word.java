@@ -1,11 +1,28 @@
 package net.xmlizer.wordhierarchy;
 
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Copyright (C) 2010 Bernhard Wagner
@@ -27,13 +44,51 @@ import java.util.Set;
  * <http://www.gnu.org/licenses/>.
  */
 
-public class Word implements Comparable<Word> {
-	private static int instanceCount;
+public class Word implements Comparable<Word>, WordNode {
+	/**
+	 * Number of children from which on they are indexed by their leading
+	 * character. Below, {@link #getChild(char)} simply scans the children.
+	 */
+	private static final int INDEX_THRESHOLD = 8;
+
+	/**
+	 * Leading characters below this limit (i.e. ASCII and Latin-1) are
+	 * indexed in a dense array, all others in a map.
+	 */
+	private static final int DENSE_LIMIT = 256;
+
+	private static final AtomicInteger instanceCount = new AtomicInteger();
 	private final int id;
-	private final String word;
-	private final Set<Word> children = new HashSet<Word>();
+	/**
+	 * The word of this node is source[start..end). Builders let source be an
+	 * input word that passes through this node, so start is the depth of this
+	 * node and the words of all its ancestors are a prefix of source.
+	 */
+	private String source;
+	private int start;
+	private int end;
+	/** Created on demand, since most words are leaves. */
+	private Set<Word> children;
+	private Word[] denseChildren;
+	private Map<Character, Word> sparseChildren;
 	private boolean complete;
 	private Word parent;
+	/**
+	 * The regex of this subtree, see {@link #toRegex()}, or null if it is
+	 * outdated. Only words with children cache their regex, so if a word with
+	 * children has none, neither have its ancestors.
+	 */
+	private String regex;
+	/** The score of this word if it is complete, otherwise 0. */
+	private long score;
+	/** The maximum score of the complete words of this subtree. */
+	private long maxScore;
+	/**
+	 * The number of complete words of this subtree, or -1 if outdated, see
+	 * {@link #getWordCount()}. Like the regex, if a word has none, neither
+	 * have its ancestors.
+	 */
+	private long wordCount = -1;
 
 	public Word getParent() {
 		return parent;
@@ -44,8 +99,30 @@ public class Word implements Comparable<Word> {
 	}
 
 	Word(final String theWord) {
-		word = theWord;
-		id = instanceCount++;
+		this(theWord, 0, theWord == null ? 0 : theWord.length());
+	}
+
+	/**
+	 * Creates a word referring to a part of theSource without copying it.
+	 * 
+	 * @param theSource
+	 *            the string containing the word
+	 * @param theStart
+	 *            the index of the first character of the word
+	 * @param theEnd
+	 *            the index after the last character of the word
+	 */
+	Word(final String theSource, final int theStart, final int theEnd) {
+		source = theSource;
+		start = theStart;
+		end = theEnd;
+		id = instanceCount.getAndIncrement();
+	}
+
+	Word(final String theSource, final int theStart, final int theEnd,
+			final boolean theComplete) {
+		this(theSource, theStart, theEnd);
+		setComplete(theComplete);
 	}
 
 	Word(final String theWord, final boolean theComplete) {
@@ -95,22 +172,100 @@ public class Word implements Comparable<Word> {
 	 * @return the new child
 	 */
 	Word addChild(final Word theWord) {
+		if (children == null) {
+			children = new HashSet<Word>();
+		}
 		children.add(theWord);
 		theWord.setParent(this);
+		invalidateCaches();
+		raiseMaxScore(theWord.maxScore);
+		if (denseChildren != null || sparseChildren != null) {
+			index(theWord);
+		}
+		else if (children.size() >= INDEX_THRESHOLD) {
+			for (final Word child : children) {
+				index(child);
+			}
+		}
 		return theWord;
 	}
 
 	void removeChild(final Word theWord) {
-		if (!children.contains(theWord)) {
+		detachChild(theWord);
+		if (theWord.maxScore == maxScore && maxScore > score) {
+			updateMaxScore();
+		}
+	}
+
+	/**
+	 * Removes a child without updating the maximum scores, which walks up
+	 * through the ancestors. For when the subtree is put back right away.
+	 */
+	private void detachChild(final Word theWord) {
+		if (children == null || !children.contains(theWord)) {
 			throw new RuntimeException("removeChild:" + getWord()
 					+ " does not contain " + theWord);
 		}
 		children.remove(theWord);
+		unindex(theWord);
 		theWord.setParent(null);
+		invalidateCaches();
+	}
+
+	/**
+	 * Returns the child whose word starts with the given character. Since the
+	 * words of siblings never share a common prefix, there is at most one such
+	 * child.
+	 * 
+	 * @param c
+	 *            the leading character of the child to look up
+	 * @return the child starting with c or null if there is none
+	 */
+	public Word getChild(final char c) {
+		if (denseChildren == null && sparseChildren == null) {
+			for (final Word child : getChildren()) {
+				if (child.charAt(0) == c) {
+					return child;
+				}
+			}
+			return null;
+		}
+		if (c < DENSE_LIMIT) {
+			return denseChildren == null ? null : denseChildren[c];
+		}
+		return sparseChildren == null ? null : sparseChildren.get(c);
+	}
+
+	private void index(final Word child) {
+		final char c = child.charAt(0);
+		if (c < DENSE_LIMIT) {
+			if (denseChildren == null) {
+				denseChildren = new Word[DENSE_LIMIT];
+			}
+			denseChildren[c] = child;
+		}
+		else {
+			if (sparseChildren == null) {
+				sparseChildren = new HashMap<Character, Word>();
+			}
+			sparseChildren.put(c, child);
+		}
+	}
+
+	private void unindex(final Word child) {
+		final char c = child.charAt(0);
+		if (c < DENSE_LIMIT) {
+			if (denseChildren != null && denseChildren[c] == child) {
+				denseChildren[c] = null;
+			}
+		}
+		else if (sparseChildren != null && sparseChildren.get(c) == child) {
+			sparseChildren.remove(c);
+		}
 	}
 
 	public Set<Word> getChildren() {
-		return children;
+		return children == null ? Collections.<Word> emptySet() : children;
 	}
 
 	@Override
@@ -128,7 +283,7 @@ public class Word implements Comparable<Word> {
 	 * @param wp
 	 *            the WordProcessor to process this word and its children.
 	 */
-	public void processAll(final WordProcessor wp) {
+	public void processAll(final WordProcessor<? super Word> wp) {
 		processAll(wp, false);
 	}
 
@@ -143,18 +298,61 @@ public class Word implements Comparable<Word> {
 	 *            
 	 * @param sorted set to true in order to get sorted (i.e. reproducible) order
 	 */
+	public void processAll(final WordProcessor<? super Word> wp,
+			boolean sorted) {
+		processAll(wp, sorted, false);
+	}
+
 	/**
+	 * Processes this word and its children.
+	 * 
+	 * The tree is traversed with an explicit stack instead of recursion, so
+	 * arbitrarily deep trees can be processed. The callbacks are invoked in
+	 * the same order as by a recursive depth-first traversal.
+	 * 
 	 * @param wp
+	 *            the WordProcessor to process this word and its children.
+	 * @param sorted
+	 *            set to true in order to get sorted (i.e. reproducible) order
+	 * @param prune
+	 *            set to true in order to skip the children of every word for
+	 *            which {@link WordProcessor#processWord(WordNode)} returns false
+	 * @see TraversalEvent
 	 */
-	public void processAll(final WordProcessor wp, boolean sorted) {
-		wp.processWord(this);
-		final Collection<Word> children2 = sorted ? asSortedList(getChildren()) : getChildren();
-		if (!children2.isEmpty()) {
-			wp.preChildren(this);
-			for (final Word child : children2) {
-				child.processAll(wp, sorted);
+	public void processAll(final WordProcessor<? super Word> wp,
+			final boolean sorted, final boolean prune) {
+		final TraversalEvent event = new TraversalEvent();
+		event.begin();
+		final Deque<Word> words = new ArrayDeque<Word>();
+		final Deque<Iterator<Word>> children = new ArrayDeque<Iterator<Word>>();
+		long processed = 0;
+		Word word = this;
+		while (true) {
+			final boolean descend = wp.processWord(word) || !prune;
+			++processed;
+			if (descend && !word.getChildren().isEmpty()) {
+				wp.preChildren(word);
+				words.push(word);
+				children.push(sorted ? asSortedList(word.getChildren())
+						.iterator() : word.getChildren().iterator());
 			}
-			wp.postChildren(this);
+			// ascend until there is a next sibling
+			while (!children.isEmpty() && !children.peek().hasNext()) {
+				children.pop();
+				wp.postChildren(words.pop());
+			}
+			if (children.isEmpty()) {
+				break;
+			}
+			word = children.peek().next();
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.processor = wp.getClass();
+			event.sorted = sorted;
+			event.prune = prune;
+			event.words = processed;
+			event.commit();
 		}
 	}
 
@@ -234,10 +432,13 @@ public class Word implements Comparable<Word> {
 	}
 
 	/**
-	 * Runs a TestWordProcessor on this word.
+	 * Checks whether the tree of this root contains exactly the words of a
+	 * vocabulary, in time linear in the size of the tree and the vocabulary.
+	 * Differences are reported on System.err.
 	 * 
 	 * @param vocabulary
-	 * @return
+	 * @return true if the words of the tree are those of the vocabulary
+	 * @see TestWordProcessor
 	 */
 	public boolean testIt(final Collection<String> vocabulary) {
 		final TestWordProcessor twp = new TestWordProcessor(vocabulary);
@@ -251,6 +452,17 @@ public class Word implements Comparable<Word> {
 		}
 	}
 
+	/**
+	 * Converts this word and its children into a compact, read-only
+	 * representation.
+	 * 
+	 * @return the frozen tree
+	 * @see FrozenWordTree#of(Word)
+	 */
+	public FrozenWordTree freeze() {
+		return FrozenWordTree.of(this);
+	}
+
 	/**
 	 * Returns id unique to this word.
 	 * 
@@ -262,6 +474,250 @@ public class Word implements Comparable<Word> {
 
 	public void setComplete(boolean theComplete) {
 		complete = theComplete;
+		invalidateCaches();
+		if (!theComplete && score != 0) {
+			score = 0;
+			updateMaxScore();
+		}
+	}
+
+	/**
+	 * Returns the score of this word, e.g. its frequency, by which
+	 * {@link #topCompletions(String, int)} ranks the words.
+	 * 
+	 * @return the score of this word, 0 if none has been set or it isn't
+	 *         complete
+	 */
+	public long getScore() {
+		return score;
+	}
+
+	/**
+	 * @return the maximum score of the words of this subtree
+	 */
+	public long getMaxScore() {
+		return maxScore;
+	}
+
+	/**
+	 * Sets the score of a word of the tree of this root and updates the
+	 * maximum scores of the subtrees containing it. Like
+	 * {@link #addChild(Word)}, this is not thread-safe.
+	 * 
+	 * @param theWord
+	 *            the word to set the score of
+	 * @param theScore
+	 *            the score, not negative
+	 * @return false if the tree does not contain the word
+	 * @throws IllegalArgumentException
+	 *             if the score is negative
+	 */
+	public boolean setScore(final String theWord, final long theScore) {
+		if (theScore < 0) {
+			throw new IllegalArgumentException("negative score: " + theScore);
+		}
+		final Word node = find(theWord);
+		if (node == null || !node.isComplete()) {
+			return false;
+		}
+		node.score = theScore;
+		if (theScore > node.maxScore) {
+			node.raiseMaxScore(theScore);
+		}
+		else {
+			node.updateMaxScore();
+		}
+		return true;
+	}
+
+	private void raiseMaxScore(final long theScore) {
+		for (Word word = this; word != null && word.maxScore < theScore; word = word.parent) {
+			word.maxScore = theScore;
+		}
+	}
+
+	/**
+	 * Recomputes the maximum score of this word and of its ancestors as far
+	 * as it changes.
+	 */
+	private void updateMaxScore() {
+		for (Word word = this; word != null; word = word.parent) {
+			long max = word.score;
+			for (final Word child : word.getChildren()) {
+				max = Math.max(max, child.maxScore);
+			}
+			if (max == word.maxScore) {
+				return;
+			}
+			word.maxScore = max;
+		}
+	}
+
+	/**
+	 * Returns the regex of this word and its children, as generated by a
+	 * {@link RegexWordProcessor} in sorted order.
+	 * 
+	 * The regex of every subtree is cached and only regenerated after the
+	 * subtree has changed, so after adding or removing a word only the
+	 * regexes along its path are regenerated, and the others are spliced in.
+	 * The cache costs memory in the order of the regex length times the depth
+	 * of the tree. The tree must not be modified while the regex is being
+	 * generated.
+	 * 
+	 * @return the regex matching the words of this tree
+	 */
+	public String toRegex() {
+		return RegexWordProcessor.toRegex(this);
+	}
+
+	String getCachedRegex() {
+		return regex;
+	}
+
+	void setCachedRegex(final String theRegex) {
+		regex = theRegex;
+	}
+
+	/**
+	 * Discards the cached regexes and word counts of this word and its
+	 * ancestors. The ancestors aren't locked by
+	 * {@link WordHierarchyBuilder#addWordConcurrently(Word, String)}, so
+	 * concurrent callers may only ever clear them here.
+	 */
+	private void invalidateCaches() {
+		regex = null;
+		wordCount = -1;
+		for (Word ancestor = parent; ancestor != null
+				&& (ancestor.regex != null || ancestor.wordCount >= 0); ancestor = ancestor.parent) {
+			ancestor.regex = null;
+			ancestor.wordCount = -1;
+		}
+	}
+
+	/**
+	 * Returns the number of complete words of this subtree. The counts of all
+	 * subtrees are cached, so after a change only those along its path are
+	 * counted again.
+	 * 
+	 * @return the number of complete words of this word and its children
+	 */
+	public long getWordCount() {
+		if (wordCount < 0) {
+			processAll(new WordProcessor<Word>() {
+				@Override
+				public boolean processWord(final Word word) {
+					if (word.wordCount >= 0) {
+						return false;
+					}
+					if (word.getChildren().isEmpty()) {
+						word.wordCount = word.isComplete() ? 1 : 0;
+					}
+					return true;
+				}
+
+				@Override
+				public void preChildren(final Word word) {}
+
+				@Override
+				public void postChildren(final Word word) {
+					long count = word.isComplete() ? 1 : 0;
+					for (final Word child : word.getChildren()) {
+						count += child.wordCount;
+					}
+					word.wordCount = count;
+				}
+			}, false, true);
+		}
+		return wordCount;
+	}
+
+	/**
+	 * Estimates the heap retained by this node, not by its children, on a
+	 * 64-bit JVM with compressed references and compact strings. Sources
+	 * shared by several nodes are counted for the first one only.
+	 * 
+	 * @param theSources
+	 *            the sources counted so far, compared by identity
+	 * @return the estimated number of bytes
+	 */
+	long estimateRetainedBytes(final Set<String> theSources) {
+		long bytes = SHALLOW_SIZE;
+		if (source != null && theSources.add(source)) {
+			bytes += estimateBytes(source);
+		}
+		if (regex != null) {
+			bytes += estimateBytes(regex);
+		}
+		if (children != null) {
+			// HashSet and its HashMap
+			bytes += 16 + estimateHashMapBytes(children.size());
+		}
+		if (denseChildren != null) {
+			bytes += 16 + 4 * DENSE_LIMIT;
+		}
+		if (sparseChildren != null) {
+			// and the Character keys, which aren't cached beyond 127
+			bytes += estimateHashMapBytes(sparseChildren.size()) + 16
+					* sparseChildren.size();
+		}
+		return bytes;
+	}
+
+	/**
+	 * The size of a word without the objects it refers to, derived from its
+	 * fields, so it stays right as fields are added.
+	 */
+	static final long SHALLOW_SIZE = estimateShallowBytes(Word.class);
+
+	/**
+	 * Estimates the size of an instance of a class on a 64-bit JVM with
+	 * compressed references: a 12 byte header and the instance fields, 4
+	 * bytes per reference, aligned to 8 bytes.
+	 */
+	static long estimateShallowBytes(final Class<?> theClass) {
+		long bytes = 12;
+		for (Class<?> c = theClass; c != null; c = c.getSuperclass()) {
+			for (final Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				final Class<?> type = field.getType();
+				if (type == long.class || type == double.class) {
+					bytes += 8;
+				}
+				else if (type == boolean.class || type == byte.class) {
+					bytes += 1;
+				}
+				else if (type == char.class || type == short.class) {
+					bytes += 2;
+				}
+				else {
+					// int, float and references
+					bytes += 4;
+				}
+			}
+		}
+		return bytes + 7 & ~7;
+	}
+
+	private static long estimateBytes(final String s) {
+		int width = 1;
+		for (int i = 0; i < s.length() && width == 1; i++) {
+			if (s.charAt(i) >= DENSE_LIMIT) {
+				width = 2;
+			}
+		}
+		// the String and its byte array
+		return 24 + (16 + (long) width * s.length() + 7 & ~7);
+	}
+
+	private static long estimateHashMapBytes(final int size) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < size) {
+			capacity *= 2;
+		}
+		// the map, its table and its entries
+		return 48 + 16 + 4 * capacity + 32 * size;
 	}
 
 	public boolean isComplete() {
@@ -269,11 +725,710 @@ public class Word implements Comparable<Word> {
 	}
 
 	public String getWord() {
-		return word;
+		if (source == null || start == 0 && end == source.length()) {
+			return source;
+		}
+		return source.substring(start, end);
+	}
+
+	/**
+	 * Returns whether this node has a word, i.e. is not the root of a tree.
+	 * 
+	 * @return false for the root of a tree
+	 */
+	public boolean hasWord() {
+		return source != null;
+	}
+
+	/**
+	 * Returns the length of this word without creating it.
+	 * 
+	 * @return the length of this word
+	 */
+	public int getWordLength() {
+		return end - start;
+	}
+
+	/**
+	 * Returns a character of this word without creating it.
+	 * 
+	 * @param index
+	 *            the index of the character within this word
+	 * @return the character at index
+	 */
+	public char charAt(final int index) {
+		return source.charAt(start + index);
+	}
+
+	/**
+	 * Appends this word to sb without creating it.
+	 * 
+	 * @param sb
+	 *            the builder to append to
+	 * @return sb
+	 */
+	public StringBuilder appendWordTo(final StringBuilder sb) {
+		return sb.append(source, start, end);
+	}
+
+	/**
+	 * Appends this word to out without creating it.
+	 * 
+	 * @param out
+	 *            the destination to append to
+	 * @throws IOException
+	 *             if out throws one
+	 */
+	public void appendWordTo(final Appendable out) throws IOException {
+		out.append(source, start, end);
+	}
+
+	/**
+	 * Splits this word at k: it is replaced in its parent by a new incomplete
+	 * word consisting of the first k characters, and it keeps the remaining
+	 * characters, its completeness and its children below that new word.
+	 * 
+	 * @param k
+	 *            the index to split at, 0 < k < length
+	 * @return the new word holding the common head
+	 */
+	Word split(final int k) {
+		final Word theParent = getParent();
+		// removed before relabeling since the parent indexes the first char.
+		// The words below the parent stay the same, so the maximum scores of
+		// its ancestors, which a concurrent caller hasn't locked, are left
+		// alone.
+		theParent.detachChild(this);
+		final Word commonHead = theParent.addChild(new Word(source, start,
+				start + k, false));
+		start += k;
+		regex = null;
+		commonHead.addChild(this);
+		return commonHead;
+	}
+
+	/**
+	 * Returns the node of the tree of this root in which a word ends.
+	 * 
+	 * @see #find(WordNode, CharSequence)
+	 */
+	private Word find(final CharSequence theWord) {
+		// the nodes below a Word are Words
+		return (Word) find(this, theWord);
+	}
+
+	/**
+	 * Returns the node of the tree of a root in which a word ends.
+	 * 
+	 * @param root
+	 *            the root of the tree
+	 * @param theWord
+	 *            the word to look up
+	 * @return the node, which need not be complete, or null if no node ends
+	 *         with the word
+	 */
+	private static WordNode find(final WordNode root,
+			final CharSequence theWord) {
+		WordNode node = root;
+		int offset = 0;
+		while (offset < theWord.length()) {
+			node = node.getChild(theWord.charAt(offset));
+			if (node == null
+					|| offset + node.getWordLength() > theWord.length()) {
+				return null;
+			}
+			// the first character has been matched by getChild
+			for (int i = 1; i < node.getWordLength(); i++) {
+				if (node.charAt(i) != theWord.charAt(offset + i)) {
+					return null;
+				}
+			}
+			offset += node.getWordLength();
+		}
+		return node;
+	}
+
+	/**
+	 * Checks whether the tree of this root contains a word, in time linear in
+	 * its length.
+	 * 
+	 * @param theWord
+	 *            the word to look up
+	 * @return true if theWord is a complete word of the tree
+	 */
+	public boolean contains(final CharSequence theWord) {
+		return contains(this, theWord);
+	}
+
+	/**
+	 * Checks whether the tree of a root contains a word.
+	 * 
+	 * @see #contains(CharSequence)
+	 */
+	static boolean contains(final WordNode root, final CharSequence theWord) {
+		final WordNode node = find(root, theWord);
+		return node != null && node.isComplete();
+	}
+
+	/**
+	 * Removes a word from the tree of this root. Nodes that are left without
+	 * words are deleted, and an incomplete node left with a single child is
+	 * merged with it, so the tree is the same as if it had been built without
+	 * the word. Like {@link #addChild(Word)}, this is not thread-safe.
+	 * 
+	 * @param theWord
+	 *            the word to remove
+	 * @return false if the tree does not contain the word
+	 */
+	public boolean remove(final String theWord) {
+		Word node = find(theWord);
+		if (node == null || !node.isComplete()) {
+			return false;
+		}
+		node.setComplete(false);
+		if (!node.hasWord()) {
+			return true;
+		}
+		if (node.getChildren().isEmpty()) {
+			final Word theParent = node.getParent();
+			theParent.removeChild(node);
+			node = theParent;
+		}
+		if (node.hasWord() && !node.isComplete()
+				&& node.getChildren().size() == 1) {
+			node.mergeWithChild();
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces this word by its only child, which gets the concatenation of
+	 * both words.
+	 */
+	private void mergeWithChild() {
+		final Word child = children.iterator().next();
+		final Word theParent = getParent();
+		// removed before relabeling since the parents index the first char
+		theParent.removeChild(this);
+		removeChild(child);
+		final int length = getWordLength();
+		if (child.start >= length
+				&& child.source.regionMatches(child.start - length, source,
+						start, length)) {
+			// the child's source passes through this word, see source
+			child.start -= length;
+		}
+		else {
+			child.source = getWord() + child.getWord();
+			child.start = 0;
+			child.end = child.source.length();
+		}
+		child.regex = null;
+		theParent.addChild(child);
+	}
+
+	/**
+	 * Returns the words of the tree of this root starting with a prefix, in
+	 * sorted order. The node of the prefix is looked up in time linear in its
+	 * length. The words below it are only enumerated as the iterator is
+	 * advanced, and each is built on a single buffer shared along the path.
+	 * 
+	 * @param prefix
+	 *            the prefix of the words, the empty string for all words
+	 * @return the words starting with prefix
+	 */
+	public Iterator<String> completions(final String prefix) {
+		return completions(this, prefix);
+	}
+
+	/**
+	 * Returns the words of the tree of a root starting with a prefix.
+	 * 
+	 * @see #completions(String)
+	 */
+	static Iterator<String> completions(final WordNode root,
+			final String prefix) {
+		final StringBuilder sb = new StringBuilder(prefix);
+		final WordNode node = findPrefix(root, sb);
+		if (node == null) {
+			return Collections.<String> emptyList().iterator();
+		}
+		return new Completions(node, sb);
+	}
+
+	/**
+	 * Returns the node of the tree of this root in which a prefix ends or
+	 * within whose word it ends.
+	 * 
+	 * @see #findPrefix(WordNode, StringBuilder)
+	 */
+	private Word findPrefix(final StringBuilder sb) {
+		return (Word) findPrefix(this, sb);
+	}
+
+	/**
+	 * Returns the node of the tree of a root in which a prefix ends or within
+	 * whose word it ends.
+	 * 
+	 * @param root
+	 *            the root of the tree
+	 * @param sb
+	 *            the prefix, to which the rest of the word of the node is
+	 *            appended
+	 * @return the node or null if no word starts with the prefix
+	 */
+	private static WordNode findPrefix(final WordNode root,
+			final StringBuilder sb) {
+		final int prefixLength = sb.length();
+		WordNode node = root;
+		int offset = 0;
+		while (offset < prefixLength) {
+			node = node.getChild(sb.charAt(offset));
+			if (node == null) {
+				return null;
+			}
+			// the prefix may end within the word of node
+			final int length = Math.min(node.getWordLength(), prefixLength
+					- offset);
+			for (int i = 1; i < length; i++) {
+				if (node.charAt(i) != sb.charAt(offset + i)) {
+					return null;
+				}
+			}
+			offset += node.getWordLength();
+		}
+		if (node != root) {
+			sb.setLength(offset - node.getWordLength());
+			node.appendWordTo(sb);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the words of the tree of this root starting with a prefix that
+	 * have the highest scores, see {@link #setScore(String, long)}.
+	 * 
+	 * The subtrees are visited best first by their maximum score, so only
+	 * those whose words can still be among the best are entered, and the
+	 * time depends on k and the fan-out rather than on the number of words
+	 * starting with the prefix.
+	 * 
+	 * @param prefix
+	 *            the prefix of the words, the empty string for all words
+	 * @param k
+	 *            the maximum number of words to return
+	 * @return at most k words, by descending score and ascending words of
+	 *         equal score
+	 */
+	public List<String> topCompletions(final String prefix, final int k) {
+		final List<String> result = new ArrayList<String>(Math.min(k, 16));
+		final StringBuilder sb = new StringBuilder(prefix);
+		final Word node = findPrefix(sb);
+		if (node == null || k <= 0) {
+			return result;
+		}
+		final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+		candidates.add(new Candidate(node, sb.toString(), node.maxScore));
+		while (!candidates.isEmpty() && result.size() < k) {
+			final Candidate candidate = candidates.poll();
+			if (candidate.word == null) {
+				result.add(candidate.path);
+				continue;
+			}
+			if (candidate.word.isComplete()) {
+				candidates.add(new Candidate(null, candidate.path,
+						candidate.word.score));
+			}
+			sb.setLength(0);
+			sb.append(candidate.path);
+			for (final Word child : candidate.word.getChildren()) {
+				sb.setLength(candidate.path.length());
+				child.appendWordTo(sb);
+				candidates.add(new Candidate(child, sb.toString(),
+						child.maxScore));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the words of the tree of this root within a given Levenshtein
+	 * distance of a term, e.g. to suggest corrections of a misspelled word.
+	 * 
+	 * The tree is walked depth first, computing one row of the edit distance
+	 * matrix per character of the path. The rows of a common prefix are thus
+	 * computed only once for all words starting with it, and a subtree is
+	 * skipped as soon as all distances in the row of its path exceed the
+	 * maximum, since they never decrease along a path.
+	 * 
+	 * @param term
+	 *            the term to compare the words to
+	 * @param maxDistance
+	 *            the maximum number of inserted, deleted or replaced
+	 *            characters
+	 * @return the words within maxDistance of term, in sorted order
+	 * @throws IllegalArgumentException
+	 *             if maxDistance is negative
+	 */
+	public List<String> approximateMatches(final String term,
+			final int maxDistance) {
+		if (maxDistance < 0) {
+			throw new IllegalArgumentException("negative distance: "
+					+ maxDistance);
+		}
+		final int n = term.length();
+		final List<String> result = new ArrayList<String>();
+		// rows[d] holds the distances of the path prefix of length d to all
+		// prefixes of term
+		int[][] rows = new int[16][];
+		rows[0] = new int[n + 1];
+		for (int j = 0; j <= n; j++) {
+			rows[0][j] = j;
+		}
+		if (isComplete() && n <= maxDistance) {
+			result.add("");
+		}
+		final StringBuilder sb = new StringBuilder();
+		// the nodes to visit and the length of the path to their parents
+		final Deque<Word> words = new ArrayDeque<Word>();
+		int[] depths = new int[16];
+		pushSortedChildren(this, 0, words, depths);
+		while (!words.isEmpty()) {
+			final int depth = depths[words.size() - 1];
+			final Word word = words.pop();
+			sb.setLength(depth);
+			boolean reachable = true;
+			for (int i = 0; reachable && i < word.getWordLength(); i++) {
+				final int d = depth + i;
+				if (d + 1 == rows.length) {
+					rows = Arrays.copyOf(rows, 2 * rows.length);
+				}
+				if (rows[d + 1] == null) {
+					rows[d + 1] = new int[n + 1];
+				}
+				final char c = word.charAt(i);
+				reachable = nextRow(term, c, rows[d], rows[d + 1], maxDistance);
+				sb.append(c);
+			}
+			if (!reachable) {
+				continue;
+			}
+			if (word.isComplete() && rows[sb.length()][n] <= maxDistance) {
+				result.add(sb.toString());
+			}
+			depths = pushSortedChildren(word, sb.length(), words, depths);
+		}
+		return result;
+	}
+
+	/**
+	 * Pushes the children of a word in reverse order, so they are popped in
+	 * sorted order.
+	 * 
+	 * @return depths, grown if necessary
+	 */
+	private static int[] pushSortedChildren(final Word word, final int depth,
+			final Deque<Word> words, int[] depths) {
+		final List<Word> children = asSortedList(word.getChildren());
+		for (int i = children.size() - 1; i >= 0; i--) {
+			if (words.size() == depths.length) {
+				depths = Arrays.copyOf(depths, 2 * depths.length);
+			}
+			depths[words.size()] = depth;
+			words.push(children.get(i));
+		}
+		return depths;
+	}
+
+	/**
+	 * Computes the edit distances of a path extended by c to the prefixes of
+	 * term from those of the path.
+	 * 
+	 * @return false if all of them exceed maxDistance
+	 */
+	private static boolean nextRow(final String term, final char c,
+			final int[] previous, final int[] row, final int maxDistance) {
+		row[0] = previous[0] + 1;
+		int min = row[0];
+		for (int j = 1; j < row.length; j++) {
+			final int replace = previous[j - 1]
+					+ (term.charAt(j - 1) == c ? 0 : 1);
+			row[j] = Math.min(replace, Math.min(previous[j], row[j - 1]) + 1);
+			min = Math.min(min, row[j]);
+		}
+		return min <= maxDistance;
+	}
+
+	/**
+	 * A complete word or a subtree to visit by
+	 * {@link Word#topCompletions(String, int)}. The best candidate has the
+	 * highest score, then the least path, which makes the words come out in
+	 * ascending order among equal scores, since the words of a subtree are
+	 * greater than its path. A word comes before a subtree with the same path,
+	 * i.e. before the longer words below it.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		/** The root of the subtree, or null for a word. */
+		final Word word;
+		final String path;
+		final long score;
+
+		Candidate(final Word theWord, final String thePath, final long theScore) {
+			word = theWord;
+			path = thePath;
+			score = theScore;
+		}
+
+		@Override
+		public int compareTo(final Candidate o) {
+			if (score != o.score) {
+				return score > o.score ? -1 : 1;
+			}
+			final int c = path.compareTo(o.path);
+			if (c != 0) {
+				return c;
+			}
+			return (word == null ? 0 : 1) - (o.word == null ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Enumerates the complete words of a subtree depth-first on an explicit
+	 * stack of the sorted children of the nodes on the current path.
+	 */
+	private static class Completions implements Iterator<String> {
+		private final StringBuilder sb;
+		private final Deque<Iterator<WordNode>> children = new ArrayDeque<Iterator<WordNode>>();
+		/** The length of the word ending in the parent of each iterator. */
+		private int[] lengths = new int[16];
+		private String next;
+
+		Completions(final WordNode node, final StringBuilder theSb) {
+			sb = theSb;
+			push(node);
+			next = node.isComplete() ? sb.toString() : advance();
+		}
+
+		private void push(final WordNode node) {
+			if (!node.getChildren().isEmpty()) {
+				if (children.size() == lengths.length) {
+					lengths = Arrays.copyOf(lengths, 2 * lengths.length);
+				}
+				lengths[children.size()] = sb.length();
+				children.push(sortedChildren(node).iterator());
+			}
+		}
+
+		private String advance() {
+			while (!children.isEmpty()) {
+				if (!children.peek().hasNext()) {
+					children.pop();
+					continue;
+				}
+				final WordNode child = children.peek().next();
+				sb.setLength(lengths[children.size() - 1]);
+				child.appendWordTo(sb);
+				push(child);
+				if (child.isComplete()) {
+					return sb.toString();
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public String next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			final String result = next;
+			next = advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Returns the words of the tree of this root in sorted order. The stream
+	 * is sized and, if made parallel, splits along the subtrees by their
+	 * word counts, see {@link #getWordCount()}. The tree must not be modified
+	 * while the stream is consumed.
+	 * 
+	 * @return the words of this tree
+	 */
+	public Stream<String> words() {
+		return words(this);
+	}
+
+	/**
+	 * Returns the words of the tree of a root in sorted order.
+	 * 
+	 * @see #words()
+	 */
+	static Stream<String> words(final WordNode root) {
+		return StreamSupport.stream(new WordSpliterator(root), false);
+	}
+
+	/**
+	 * Enumerates the complete words of a sequence of subtrees, each by
+	 * {@link Completions}. Splitting hands about half of the words of the
+	 * subtrees not yet started to a new spliterator. A single subtree is
+	 * replaced by its word and its children first.
+	 */
+	private static class WordSpliterator implements Spliterator<String> {
+		/** The subtrees, in sorted order. */
+		private final List<Subtree> subtrees;
+		/** The index of the next subtree to start. */
+		private int next;
+		private Iterator<String> current;
+		private long size;
+
+		WordSpliterator(final WordNode root) {
+			this(new ArrayList<Subtree>(Collections.singletonList(new Subtree(
+					root, "", true))), root.getWordCount());
+		}
+
+		private WordSpliterator(final List<Subtree> theSubtrees,
+				final long theSize) {
+			subtrees = theSubtrees;
+			size = theSize;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super String> action) {
+			while (current == null || !current.hasNext()) {
+				if (next == subtrees.size()) {
+					return false;
+				}
+				current = subtrees.get(next++).iterator();
+			}
+			action.accept(current.next());
+			--size;
+			return true;
+		}
+
+		@Override
+		public Spliterator<String> trySplit() {
+			if (current != null && current.hasNext()) {
+				// the words of current must not be overtaken
+				return null;
+			}
+			while (subtrees.size() - next == 1) {
+				final Subtree only = subtrees.remove(next);
+				if (!only.withChildren || only.word.getChildren().isEmpty()) {
+					subtrees.add(only);
+					return null;
+				}
+				if (only.word.isComplete()) {
+					subtrees.add(new Subtree(only.word, only.path, false));
+				}
+				for (final WordNode child : sortedChildren(only.word)) {
+					subtrees.add(new Subtree(child, child.appendWordTo(
+							new StringBuilder(only.path)).toString(), true));
+				}
+			}
+			if (subtrees.size() - next < 2) {
+				return null;
+			}
+			// the prefix of about half the words, at least one subtree, and
+			// at least one left
+			long prefixSize = subtrees.get(next).size();
+			int split = next + 1;
+			while (split < subtrees.size() - 1 && 2 * prefixSize < size) {
+				prefixSize += subtrees.get(split++).size();
+			}
+			final List<Subtree> prefix = new ArrayList<Subtree>(subtrees
+					.subList(next, split));
+			subtrees.subList(next, split).clear();
+			size -= prefixSize;
+			return new WordSpliterator(prefix, prefixSize);
+		}
+
+		@Override
+		public long estimateSize() {
+			return size;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | NONNULL | SIZED | SUBSIZED;
+		}
+
+		@Override
+		public Comparator<? super String> getComparator() {
+			// natural order
+			return null;
+		}
+	}
+
+	/**
+	 * The words of a subtree, or only the word of its root, whose full word
+	 * is path.
+	 */
+	private static class Subtree {
+		final WordNode word;
+		final String path;
+		final boolean withChildren;
+
+		Subtree(final WordNode theWord, final String thePath,
+				final boolean theWithChildren) {
+			word = theWord;
+			path = thePath;
+			withChildren = theWithChildren;
+		}
+
+		long size() {
+			return withChildren ? word.getWordCount() : 1;
+		}
+
+		Iterator<String> iterator() {
+			if (withChildren) {
+				return new Completions(word, new StringBuilder(path));
+			}
+			return Collections.singletonList(path).iterator();
+		}
 	}
 
 	@Override
 	public int compareTo(final Word o) {
-		return word.compareTo(o.word);
+		return compare(this, o);
+	}
+
+	/**
+	 * Compares two nodes by their words, without creating them.
+	 */
+	static int compare(final WordNode a, final WordNode b) {
+		final int length = Math.min(a.getWordLength(), b.getWordLength());
+		for (int i = 0; i < length; i++) {
+			final char c = a.charAt(i);
+			final char bc = b.charAt(i);
+			if (c != bc) {
+				return c - bc;
+			}
+		}
+		return a.getWordLength() - b.getWordLength();
+	}
+
+	/**
+	 * Returns the children of a node sorted by their words.
+	 * 
+	 * @param node
+	 *            the node whose children to sort
+	 * @return the children as a sorted list
+	 */
+	static List<WordNode> sortedChildren(final WordNode node) {
+		final List<WordNode> list = new ArrayList<WordNode>(
+				node.getChildren());
+		Collections.sort(list, Word::compare);
+		return list;
 	}
 }
\ No newline at end of file
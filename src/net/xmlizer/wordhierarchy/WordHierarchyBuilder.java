@@ -1,10 +1,20 @@
 package net.xmlizer.wordhierarchy;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Copyright (C) 2010 Bernhard Wagner
@@ -28,76 +38,244 @@ import java.util.Iterator;
 
 public class WordHierarchyBuilder {
 
-	private static void addWordTree(final Word root, final String theNewWord,
-			boolean theComplete) {
-		boolean subtreeFound = false;
-		final Iterator<Word> childrenIterator = root.getChildren().iterator();
-		while (!subtreeFound && childrenIterator.hasNext()) {
-			final Word oldChild = childrenIterator.next();
-			int k = findCommonSubstring(oldChild, theNewWord);
+	/**
+	 * The ways a word is inserted into a tree.
+	 */
+	public enum Insertion {
+		/** A new leaf is added below the node the word shares its prefix with. */
+		EXTEND,
+		/**
+		 * A node is split since the word ends within it. Its tail is
+		 * reparented below its shortened head, which becomes complete.
+		 */
+		SHORTEN,
+		/**
+		 * A node is split at the first character differing from the word, and
+		 * the rest of the word is added as a new leaf below its head.
+		 */
+		SPLIT,
+		/** The word ends exactly in an existing node. */
+		COMPLETE
+	}
+
+	/**
+	 * Counts how the words of a build have been inserted. Pass an instance to
+	 * a builder to learn what it did; one instance may be shared by several
+	 * threads. Subtrees {@link #createWordTreeParallel(Collection, ForkJoinPool, InsertionCounts)}
+	 * creates directly from a common prefix of their words aren't counted.
+	 */
+	public static final class InsertionCounts {
+		private final LongAdder[] counts = new LongAdder[Insertion.values().length];
+
+		public InsertionCounts() {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = new LongAdder();
+			}
+		}
+
+		private void count(final Insertion insertion) {
+			counts[insertion.ordinal()].increment();
+		}
+
+		/**
+		 * @param insertion
+		 *            the way of insertion
+		 * @return how often words have been inserted that way
+		 */
+		public long get(final Insertion insertion) {
+			return counts[insertion.ordinal()].sum();
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			for (final Insertion insertion : Insertion.values()) {
+				sb.append(insertion.name().toLowerCase()).append(": ")
+						.append(get(insertion)).append('\n');
+			}
+			return sb.toString();
+		}
+	}
+
+	private static void count(final InsertionCounts counts,
+			final Insertion insertion) {
+		if (counts != null) {
+			counts.count(insertion);
+		}
+	}
+
+	/**
+	 * Adds theNewWord from index offset on below root. The words of the new
+	 * nodes refer to theNewWord instead of copying parts of it.
+	 */
+	private static void addWordTree(Word root, final String theNewWord,
+			int offset, final boolean theComplete, final InsertionCounts counts) {
+		while (offset < theNewWord.length()) {
+			// at most one child can share the first character with the new
+			// word
+			final Word oldChild = root.getChild(theNewWord.charAt(offset));
+			if (oldChild == null) {
+				root.addChild(new Word(theNewWord, offset, theNewWord.length(),
+						theComplete));
+				count(counts, Insertion.EXTEND);
+				return;
+			}
+			final int k = findCommonSubstring(oldChild, theNewWord, offset);
 
 			// k == child.word.length || k == theWord.length ||
 			// child[k] != word[k]
+			// k > 0, since the first characters are equal
 
-			if (k == oldChild.getWord().length()) {
-				subtreeFound = true;
-				if (k == theNewWord.length()) {
-					oldChild.setComplete(true);
+			if (k < oldChild.getWordLength()) {
+				// split the old child at k, the new word ends in the common
+				// head or gets its tail added to it
+				final Word commonHeadChild = oldChild.split(k);
+				offset += k;
+				if (offset == theNewWord.length()) {
+					commonHeadChild.setComplete(theComplete);
+					count(counts, Insertion.SHORTEN);
 				}
 				else {
-					addWordTree(oldChild, theNewWord.substring(k), theComplete);
+					commonHeadChild.addChild(new Word(theNewWord, offset,
+							theNewWord.length(), theComplete));
+					count(counts, Insertion.SPLIT);
 				}
+				return;
 			}
-			else if (k == theNewWord.length()) {
-				subtreeFound = true;
-				final Word parent = oldChild.getParent();
-				parent.removeChild(oldChild);
-				final Word newChild = parent.addChild(theNewWord, theComplete);
-				final Word remainder = newChild.addChild(oldChild.getWord()
-						.substring(k), oldChild.isComplete());
-				remainder.addAll(oldChild.getChildren());
-			}
-			else if (k > 0) {
-				subtreeFound = true;
-				// split the current child c into two by splitting the word at k
-				// obtaining new children child1 and child2
-				final String commonHeadSubstring = oldChild.getWord()
-						.substring(0, k);
-				final String tailOfOldWord = oldChild.getWord().substring(k);
-				final String tailOfNewWord = theNewWord.substring(k);
-				final Word parent = oldChild.getParent();
-				// remove oldChild from its parent.
-				parent.removeChild(oldChild);
-				// add commonHeadChild as a child of parent of oldChild
-				final Word commonHeadChild = parent.addChild(
-						commonHeadSubstring, false);
-				// add tailOfOldChild as a child of commonHeadChild
-				final Word tailOfOldChild = commonHeadChild.addChild(
-						tailOfOldWord, oldChild.isComplete());
-				// add all children of oldChild to tailOfOldChild.
-				tailOfOldChild.addAll(oldChild.getChildren());
-				// add new substring to commonHeadChild
-				commonHeadChild.addChild(tailOfNewWord, theComplete);
-			}
-		}
-		if (!subtreeFound) {
-			root.addChild(new Word(theNewWord, true));
-		}
-	}
-
-	/**
-	 * Returns index up to which given theWord and theString have common
-	 * substrings starting from the beginning (index 0).
+			root = oldChild;
+			offset += k;
+		}
+		// the new word ends exactly in root. The empty word is represented by
+		// the root of the tree itself.
+		root.setComplete(theComplete);
+		count(counts, Insertion.COMPLETE);
+	}
+
+	/**
+	 * Adds theNewWord to the tree below root. Like {@link Word#remove(String)},
+	 * this is not thread-safe, see {@link #addWordConcurrently(Word, String)}
+	 * for adding words from several threads.
+	 * 
+	 * @param root
+	 *            the root of the tree to add to
+	 * @param theNewWord
+	 *            the word to add
+	 */
+	public static void addWord(final Word root, final String theNewWord) {
+		addWord(root, theNewWord, null);
+	}
+
+	/**
+	 * Adds theNewWord to the tree below root and counts how.
+	 * 
+	 * @param counts
+	 *            counts the insertion, may be null
+	 * @see #addWord(Word, String)
+	 */
+	public static void addWord(final Word root, final String theNewWord,
+			final InsertionCounts counts) {
+		addWordTree(root, theNewWord, 0, true, counts);
+	}
+
+	/**
+	 * Adds theNewWord to the tree below root. Any number of threads may call
+	 * this method for the same tree at the same time.
+	 * 
+	 * Each node is locked only while its children are looked up or changed,
+	 * so threads inserting into different subtrees don't block each other.
+	 * A split changes the word of a node, but never the full prefix ending in
+	 * it. Thus a thread that decided to descend into a node can rely on the
+	 * prefix even if the node has been split in the meantime.
+	 * 
+	 * Changing a node discards the cached regexes and word counts of its
+	 * ancestors, which are written without locking them. This is safe since
+	 * all threads only ever clear them, but the tree must not be read or
+	 * changed otherwise before all inserting threads have finished, e.g. have
+	 * been joined. Single-threaded code should use
+	 * {@link #addWord(Word, String)}, which takes no locks.
+	 * 
+	 * Scores set before are kept. New words have no score, so the maximum
+	 * scores of the ancestors stay the same, and a split takes over the
+	 * maximum score of the node it splits. Thus no unlocked node is touched
+	 * for them. {@link Word#setScore(String, long)} must not be called while
+	 * threads are inserting.
+	 * 
+	 * @param root
+	 *            the root of the tree to add to
+	 * @param theNewWord
+	 *            the word to add
+	 */
+	public static void addWordConcurrently(final Word root,
+			final String theNewWord) {
+		addWordConcurrently(root, theNewWord, null);
+	}
+
+	/**
+	 * Adds theNewWord to the tree below root and counts how.
+	 * 
+	 * @param counts
+	 *            counts the insertion, may be null
+	 * @see #addWordConcurrently(Word, String)
+	 */
+	public static void addWordConcurrently(final Word root,
+			final String theNewWord, final InsertionCounts counts) {
+		Word node = root;
+		int offset = 0;
+		while (true) {
+			synchronized (node) {
+				if (offset == theNewWord.length()) {
+					node.setComplete(true);
+					count(counts, Insertion.COMPLETE);
+					return;
+				}
+				final Word oldChild = node.getChild(theNewWord.charAt(offset));
+				if (oldChild == null) {
+					node.addChild(new Word(theNewWord, offset,
+							theNewWord.length(), true));
+					count(counts, Insertion.EXTEND);
+					return;
+				}
+				// the word of oldChild only changes while its parent is locked
+				final int k = findCommonSubstring(oldChild, theNewWord, offset);
+				if (k < oldChild.getWordLength()) {
+					final Word commonHeadChild;
+					// oldChild may be locked by a thread adding to its children
+					synchronized (oldChild) {
+						commonHeadChild = oldChild.split(k);
+					}
+					offset += k;
+					if (offset == theNewWord.length()) {
+						commonHeadChild.setComplete(true);
+						count(counts, Insertion.SHORTEN);
+					}
+					else {
+						commonHeadChild.addChild(new Word(theNewWord, offset,
+								theNewWord.length(), true));
+						count(counts, Insertion.SPLIT);
+					}
+					return;
+				}
+				node = oldChild;
+				offset += k;
+			}
+		}
+	}
+
+	/**
+	 * Returns index up to which given theWord and theString from offset on
+	 * have common substrings starting from the beginning (index 0).
 	 * 
 	 * @param theWord
 	 * @param theString
+	 * @param offset
 	 * @return
 	 */
 	private static int findCommonSubstring(final Word theWord,
-			final String theString) {
+			final String theString, final int offset) {
+		final int length = Math.min(theWord.getWordLength(), theString.length()
+				- offset);
 		int k = 0;
-		while (k < theWord.getWord().length() && k < theString.length()
-				&& theWord.getWord().charAt(k) == theString.charAt(k)) {
+		while (k < length && theWord.charAt(k) == theString.charAt(offset + k)) {
 			++k;
 		}
 		return k;
@@ -139,29 +317,483 @@ public class WordHierarchyBuilder {
 	}
 
 	public static Word createWordTree(final Iterator<String> vocabularyIter) {
+		return createWordTree(vocabularyIter, (InsertionCounts) null);
+	}
+
+	/**
+	 * Creates a word tree and counts how its words have been inserted.
+	 * 
+	 * @param vocabularyIter
+	 *            the words to build the tree from
+	 * @param counts
+	 *            counts the insertions, may be null
+	 * @return the root of the word tree
+	 */
+	public static Word createWordTree(final Iterator<String> vocabularyIter,
+			final InsertionCounts counts) {
+		final BuildEvent event = new BuildEvent();
+		event.begin();
+		final InsertionCounts eventCounts = countsFor(event, counts);
 		final Word root = new Word();
-		final String next = vocabularyIter.next();
-		// System.out.println("adding " + next);
-		root.addChild(next, true);
+		long words = 0;
 		while (vocabularyIter.hasNext()) {
 			final String word = vocabularyIter.next();
 			// System.out.println("adding " + word);
-			addWordTree(root, word, true);
+			addWordTree(root, word, 0, true, eventCounts);
 			// System.out.println(root.myToString());
+			++words;
 		}
+		commit(event, "createWordTree", words, eventCounts);
 		return root;
 	}
 
-	public static void main(final String[] args) {
-		if (args.length == 0) {
-			System.out.println("Usage: pass a list of strings as arguments");
+	/**
+	 * Returns the counts to build with, new ones if the caller passed none
+	 * but the event is recorded.
+	 */
+	private static InsertionCounts countsFor(final BuildEvent event,
+			final InsertionCounts counts) {
+		return counts != null || !event.isEnabled() ? counts
+				: new InsertionCounts();
+	}
+
+	private static void commit(final BuildEvent event, final String builder,
+			final long words, final InsertionCounts counts) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.builder = builder;
+			event.words = words;
+			if (counts != null) {
+				event.extend = counts.get(Insertion.EXTEND);
+				event.shorten = counts.get(Insertion.SHORTEN);
+				event.split = counts.get(Insertion.SPLIT);
+				event.complete = counts.get(Insertion.COMPLETE);
+			}
+			event.commit();
+		}
+	}
+
+	/**
+	 * Creates a word tree from a lexicographically sorted vocabulary in time
+	 * linear in the total number of characters.
+	 * 
+	 * Since every word is greater than or equal to its predecessor, it can
+	 * only branch off the path of the previous word. Only this rightmost path
+	 * is kept on a stack; siblings are never searched. Duplicates are allowed.
+	 * 
+	 * @param sortedVocabularyIter
+	 *            the words in ascending {@link String#compareTo(String)} order
+	 * @return the root of the word tree
+	 * @throws IllegalArgumentException
+	 *             if the vocabulary is not sorted
+	 */
+	public static Word createWordTreeFromSorted(
+			final Iterator<String> sortedVocabularyIter) {
+		return createWordTreeFromSorted(sortedVocabularyIter, null);
+	}
+
+	/**
+	 * Creates a word tree from a sorted vocabulary and counts how its words
+	 * have been inserted. Since a word can't end within the path of its
+	 * predecessor, no word is inserted by {@link Insertion#SHORTEN}.
+	 * 
+	 * @param sortedVocabularyIter
+	 *            the words in ascending {@link String#compareTo(String)} order
+	 * @param counts
+	 *            counts the insertions, may be null
+	 * @return the root of the word tree
+	 * @see #createWordTreeFromSorted(Iterator)
+	 */
+	public static Word createWordTreeFromSorted(
+			final Iterator<String> sortedVocabularyIter,
+			final InsertionCounts counts) {
+		final BuildEvent event = new BuildEvent();
+		event.begin();
+		final InsertionCounts eventCounts = countsFor(event, counts);
+		final Word root = new Word();
+		long words = 0;
+		// the rightmost path and the length of the prefix ending in each node
+		Word[] path = new Word[16];
+		int[] depths = new int[16];
+		int top = 0;
+		path[0] = root;
+		String previous = "";
+		while (sortedVocabularyIter.hasNext()) {
+			final String word = sortedVocabularyIter.next();
+			if (previous.compareTo(word) > 0) {
+				throw new IllegalArgumentException("vocabulary not sorted: "
+						+ previous + " > " + word);
+			}
+			int k = 0;
+			while (k < previous.length() && k < word.length()
+					&& previous.charAt(k) == word.charAt(k)) {
+				++k;
+			}
+			// pop nodes starting at or beyond the common prefix
+			while (top > 0 && depths[top - 1] >= k) {
+				--top;
+			}
+			final boolean split = depths[top] > k;
+			if (split) {
+				// the common prefix ends within the top node: split it at k.
+				// Its tail drops off the path since word > previous.
+				path[top] = path[top].split(k - depths[top - 1]);
+				depths[top] = k;
+			}
+			if (k == word.length()) {
+				// a duplicate, since word >= previous
+				path[top].setComplete(true);
+				count(eventCounts, Insertion.COMPLETE);
+			}
+			else {
+				count(eventCounts, split ? Insertion.SPLIT : Insertion.EXTEND);
+				if (++top == path.length) {
+					path = Arrays.copyOf(path, 2 * top);
+					depths = Arrays.copyOf(depths, 2 * top);
+				}
+				path[top] = path[top - 1].addChild(new Word(word, k,
+						word.length(), true));
+				depths[top] = word.length();
+			}
+			previous = word;
+			++words;
+		}
+		commit(event, "createWordTreeFromSorted", words, eventCounts);
+		return root;
+	}
+
+	/**
+	 * Creates a word tree on the common {@link ForkJoinPool}.
+	 * 
+	 * @see #createWordTreeParallel(Collection, ForkJoinPool)
+	 */
+	public static Word createWordTreeParallel(final Collection<String> vocabulary) {
+		return createWordTreeParallel(vocabulary, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a word tree by building independent subtrees in parallel.
+	 * 
+	 * The vocabulary is partitioned by the first character. Each partition
+	 * becomes a subtree of the root. Large partitions are partitioned further
+	 * by the next character after their common prefix, so skewed vocabularies
+	 * are split as deep as needed. The result is structurally identical to
+	 * the one of {@link #createWordTree(Collection)}.
+	 * 
+	 * @param vocabulary
+	 *            the words to build the tree from
+	 * @param pool
+	 *            the pool to build the subtrees on
+	 * @return the root of the word tree
+	 */
+	public static Word createWordTreeParallel(
+			final Collection<String> vocabulary, final ForkJoinPool pool) {
+		return createWordTreeParallel(vocabulary, pool, null);
+	}
+
+	/**
+	 * Creates a word tree by building independent subtrees in parallel and
+	 * counts how its words have been inserted, except those of subtrees
+	 * created directly from the common prefix of their words.
+	 * 
+	 * @param vocabulary
+	 *            the words to build the tree from
+	 * @param pool
+	 *            the pool to build the subtrees on
+	 * @param counts
+	 *            counts the insertions, may be null
+	 * @return the root of the word tree
+	 * @see #createWordTreeParallel(Collection, ForkJoinPool)
+	 */
+	public static Word createWordTreeParallel(
+			final Collection<String> vocabulary, final ForkJoinPool pool,
+			final InsertionCounts counts) {
+		final BuildEvent event = new BuildEvent();
+		event.begin();
+		final InsertionCounts eventCounts = countsFor(event, counts);
+		final Word root = new Word();
+		final List<String> words = new ArrayList<String>(vocabulary.size());
+		for (final String word : vocabulary) {
+			if (word.isEmpty()) {
+				root.setComplete(true);
+			}
+			else {
+				words.add(word);
+			}
+		}
+		root.addAll(pool.invoke(new ChildrenTask(words, 0, 0, eventCounts)));
+		commit(event, "createWordTreeParallel", vocabulary.size(),
+				eventCounts);
+		return root;
+	}
+
+	/**
+	 * Number of words from which on a subtree is partitioned further instead
+	 * of being built sequentially.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	/**
+	 * Number of partition levels at which a partition keeps more than half of
+	 * the words of its parent, from which on it is built sequentially. Since
+	 * the other levels halve the words, this bounds the depth of the
+	 * recursion, e.g. along a long chain of words that are prefixes of each
+	 * other.
+	 */
+	private static final int MAX_STALLS = 16;
+
+	/**
+	 * Builds the children of a node ending at depth. All words share their
+	 * first depth characters and are longer than depth.
+	 */
+	@SuppressWarnings("serial")
+	private static class ChildrenTask extends RecursiveTask<Collection<Word>> {
+		private final List<String> words;
+		private final int depth;
+		/** The partition levels above that did not halve the words. */
+		private final int stalls;
+		private final InsertionCounts counts;
+
+		ChildrenTask(final List<String> theWords, final int theDepth,
+				final int theStalls, final InsertionCounts theCounts) {
+			words = theWords;
+			depth = theDepth;
+			stalls = theStalls;
+			counts = theCounts;
+		}
+
+		@Override
+		protected Collection<Word> compute() {
+			if (words.size() < PARALLEL_THRESHOLD || stalls > MAX_STALLS) {
+				return buildSequentially(words, depth, counts).getChildren();
+			}
+			final Map<Character, List<String>> partitions = new HashMap<Character, List<String>>();
+			for (final String word : words) {
+				List<String> partition = partitions.get(word.charAt(depth));
+				if (partition == null) {
+					partition = new ArrayList<String>();
+					partitions.put(word.charAt(depth), partition);
+				}
+				partition.add(word);
+			}
+			final List<SubtreeTask> tasks = new ArrayList<SubtreeTask>();
+			for (final List<String> partition : partitions.values()) {
+				final boolean stalled = 2 * partition.size() > words.size();
+				tasks.add(new SubtreeTask(partition, depth, stalled ? stalls + 1
+						: stalls, counts));
+			}
+			final List<Word> children = new ArrayList<Word>(tasks.size());
+			for (final SubtreeTask task : invokeAll(tasks)) {
+				children.add(task.join());
+			}
+			return children;
+		}
+	}
+
+	/**
+	 * Builds the single child of a node ending at depth that holds all words.
+	 * All words share their first depth + 1 characters.
+	 */
+	@SuppressWarnings("serial")
+	private static class SubtreeTask extends RecursiveTask<Word> {
+		private final List<String> words;
+		private final int depth;
+		private final int stalls;
+		private final InsertionCounts counts;
+
+		SubtreeTask(final List<String> theWords, final int theDepth,
+				final int theStalls, final InsertionCounts theCounts) {
+			words = theWords;
+			depth = theDepth;
+			stalls = theStalls;
+			counts = theCounts;
+		}
+
+		@Override
+		protected Word compute() {
+			if (words.size() < PARALLEL_THRESHOLD || stalls > MAX_STALLS) {
+				return buildSequentially(words, depth, counts).getChildren().iterator()
+						.next();
+			}
+			final String first = words.get(0);
+			int k = first.length();
+			for (final String word : words) {
+				k = Math.min(k, word.length());
+				int i = depth + 1;
+				while (i < k && word.charAt(i) == first.charAt(i)) {
+					++i;
+				}
+				k = i;
+			}
+			final Word subtree = new Word(first, depth, k);
+			final List<String> longer = new ArrayList<String>(words.size());
+			for (final String word : words) {
+				if (word.length() == k) {
+					subtree.setComplete(true);
+				}
+				else {
+					longer.add(word);
+				}
+			}
+			if (!longer.isEmpty()) {
+				subtree.addAll(new ChildrenTask(longer, k, stalls, counts)
+						.compute());
+			}
+			return subtree;
+		}
+	}
+
+	private static Word buildSequentially(final List<String> words,
+			final int depth, final InsertionCounts counts) {
+		final Word root = new Word();
+		for (final String word : words) {
+			addWordTree(root, word, depth, true, counts);
+		}
+		return root;
+	}
+
+	/**
+	 * Creates a word tree from a newline-separated, UTF-8 encoded vocabulary
+	 * file without holding all of its words in memory.
+	 * 
+	 * @param vocabularyFile
+	 *            the file to read the words from
+	 * @param sorted
+	 *            whether the words are sorted, see
+	 *            {@link #createWordTreeFromSorted(Iterator)}
+	 * @return the root of the word tree
+	 * @throws IOException
+	 *             if the file cannot be read
+	 * @see MappedVocabulary
+	 */
+	public static Word createWordTree(final Path vocabularyFile,
+			final boolean sorted) throws IOException {
+		return createWordTree(vocabularyFile, sorted, null);
+	}
+
+	private static Word createWordTree(final Path vocabularyFile,
+			final boolean sorted, final InsertionCounts counts)
+			throws IOException {
+		try (MappedVocabulary vocabulary = MappedVocabulary
+				.open(vocabularyFile)) {
+			return createWordTree(vocabulary, sorted, counts);
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static Word createWordTree(final Iterator<String> vocabularyIter,
+			final boolean sorted, final InsertionCounts counts) {
+		return sorted ? createWordTreeFromSorted(vocabularyIter, counts)
+				: createWordTree(vocabularyIter, counts);
+	}
+
+	public static void main(final String[] args) throws IOException {
+		Path scan = null;
+		boolean minimal = false;
+		boolean atomic = false;
+		boolean sorted = false;
+		boolean stats = false;
+		boolean offsets = false;
+		int first = 0;
+		for (boolean option = true; option && first < args.length;) {
+			if ("-scan".equals(args[first]) && first + 1 < args.length) {
+				scan = Paths.get(args[first + 1]);
+				first += 2;
+			}
+			else if ("-m".equals(args[first])) {
+				minimal = true;
+				++first;
+			}
+			else if ("-a".equals(args[first])) {
+				atomic = true;
+				++first;
+			}
+			else if ("-s".equals(args[first])) {
+				sorted = true;
+				++first;
+			}
+			else if ("-offsets".equals(args[first])) {
+				offsets = true;
+				++first;
+			}
+			else if ("-stats".equals(args[first])) {
+				stats = true;
+				++first;
+			}
+			else {
+				option = false;
+			}
+		}
+		if (args.length == first) {
+			System.out.println("Usage: [options] pass a list of strings as"
+					+ " arguments");
+			System.out.println("   or: [options] -f <file>");
+			System.out.println("       to read newline-separated words from"
+					+ " <file> or, if it is -, from stdin.");
+			System.out.println("Options:");
+			System.out.println("       -s: the words are sorted");
+			System.out.println("       -a: generate a regexp with atomic"
+					+ " groups and possessive quantifiers");
+			System.out.println("       -m: build the minimal automaton, which"
+					+ " also shares common suffixes");
+			System.out.println("       -scan <text>: count the words in the"
+					+ " UTF-8 encoded file <text>");
+			System.out.println("       -offsets: with -scan, also print the"
+					+ " byte offsets of each occurrence");
+			System.out.println("       -stats: print statistics of the tree"
+					+ " and how its words have been inserted");
 			System.exit(1);
 		}
-		final Word word = createWordTree(args);
+		final InsertionCounts insertions = stats ? new InsertionCounts()
+				: null;
+		final Word word;
+		if (args.length == first + 2 && "-f".equals(args[first])) {
+			if ("-".equals(args[first + 1])) {
+				word = createWordTree(MappedVocabulary.lines(System.in),
+						sorted, insertions);
+			}
+			else {
+				word = createWordTree(Paths.get(args[first + 1]), sorted,
+						insertions);
+			}
+		}
+		else {
+			word = createWordTree(
+					Arrays.asList(args).subList(first, args.length).iterator(),
+					sorted, insertions);
+		}
+		if (stats) {
+			System.out.println(TreeStatistics.of(word));
+			System.out.print(insertions);
+			return;
+		}
+		if (scan != null) {
+			final Utf8Scanner scanner = Utf8Scanner.of(word);
+			// println is synchronized, so the lines of the threads don't mix
+			final Utf8Scanner.MatchListener listener = offsets ? (term,
+					start, end) -> System.out.println(start + "\t" + end + "\t"
+					+ scanner.getTerm(term)) : null;
+			final long[] counts = scanner.scan(scan, Runtime
+					.getRuntime().availableProcessors(), listener);
+			for (int term = 0; term < counts.length; term++) {
+				if (counts[term] > 0) {
+					System.out.println(counts[term] + "\t"
+							+ scanner.getTerm(term));
+				}
+			}
+			return;
+		}
+		if (minimal) {
+			final MinimalAutomaton automaton = MinimalAutomaton.of(word);
+			System.out.println(automaton);
+			System.out.println(automaton.toRegex());
+			System.out.println();
+			return;
+		}
 		System.out.println(word.myToString(false));
-		final RegexWordProcessor wp = new RegexWordProcessor();
-		word.processAll(wp);
-		System.out.println(wp.getResult());
+		word.processAll(new RegexWordProcessor(System.out, atomic));
+		System.out.println();
 		System.out.println();
 	}
 }
@@ -0,0 +1,120 @@
+package net.xmlizer.wordhierarchy;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Copyright (C) 2010 Bernhard Wagner
+ * 
+ * This file is part of wordhierarchy.
+ * 
+ * wordhierarchy is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Read-only view of a node of a word tree, as seen by a
+ * {@link WordProcessor}. Implemented by {@link Word} and by the nodes of a
+ * {@link FrozenWordTree}.
+ */
+public interface WordNode {
+	/**
+	 * Returns an id of this node, unique within its tree.
+	 * 
+	 * @return the id of this node
+	 */
+	int getId();
+
+	/**
+	 * Returns the word of this node, i.e. the part of the words below it that
+	 * is not covered by its ancestors.
+	 * 
+	 * @return the word of this node or null for the root of a tree
+	 */
+	String getWord();
+
+	/**
+	 * Returns whether the path to this node is a word of the tree.
+	 * 
+	 * @return true if this node ends a word
+	 */
+	boolean isComplete();
+
+	/**
+	 * Returns whether this node has a word, i.e. is not the root of a tree.
+	 * 
+	 * @return false for the root of a tree
+	 */
+	boolean hasWord();
+
+	/**
+	 * Returns the length of this word without creating it.
+	 * 
+	 * @return the length of this word
+	 */
+	int getWordLength();
+
+	/**
+	 * Returns a character of this word without creating it.
+	 * 
+	 * @param index
+	 *            the index of the character within this word
+	 * @return the character at index
+	 */
+	char charAt(int index);
+
+	/**
+	 * Appends this word to sb without creating it.
+	 * 
+	 * @param sb
+	 *            the builder to append to
+	 * @return sb
+	 */
+	StringBuilder appendWordTo(StringBuilder sb);
+
+	/**
+	 * Appends this word to out without creating it.
+	 * 
+	 * @param out
+	 *            the destination to append to
+	 * @throws IOException
+	 *             if out throws one
+	 */
+	void appendWordTo(Appendable out) throws IOException;
+
+	/**
+	 * Returns the children of this node.
+	 * 
+	 * @return the children, empty for a leaf
+	 */
+	Collection<? extends WordNode> getChildren();
+
+	/**
+	 * Returns the child whose word starts with the given character. Since the
+	 * words of siblings never share a common prefix, there is at most one such
+	 * child.
+	 * 
+	 * @param c
+	 *            the leading character of the child to look up
+	 * @return the child starting with c or null if there is none
+	 */
+	WordNode getChild(char c);
+
+	/**
+	 * Returns the number of complete words of this subtree.
+	 * 
+	 * @return the number of complete words of this node and its children
+	 */
+	long getWordCount();
+}
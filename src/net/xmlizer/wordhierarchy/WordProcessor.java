@@ -1,9 +1,17 @@
 package net.xmlizer.wordhierarchy;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
 
 /**
@@ -26,76 +34,114 @@ import java.util.Stack;
  * <http://www.gnu.org/licenses/>.
  */
 
-interface WordProcessor {
-	boolean processWord(final Word word);
+/**
+ * Visits the nodes of a word tree.
+ * 
+ * @param <W>
+ *            the type of the nodes, {@link WordNode} for processors that
+ *            run over any tree
+ */
+interface WordProcessor<W extends WordNode> {
+	/**
+	 * Processes a word.
+	 * @param word
+	 * @return false to skip the children of this word, if the traversal
+	 *         prunes (see {@link Word#processAll(WordProcessor, boolean, boolean)})
+	 */
+	boolean processWord(final W word);
 
 	/**
 	 * Hook called before processing children of this word
 	 * @param word
 	 */
-	void preChildren(final Word word);
+	void preChildren(final W word);
 
 	/**
 	 * Hook called after processing children of this word
 	 * @param word
 	 */
-	void postChildren(final Word word);
+	void postChildren(final W word);
 }
 
-abstract class AbstractWordProcessor implements WordProcessor {
+abstract class AbstractWordProcessor<W extends WordNode> implements
+		WordProcessor<W> {
 
 	@Override
-	public void preChildren(final Word word) {}
+	public void preChildren(final W word) {}
 
 	@Override
-	public void postChildren(final Word word) {}
+	public void postChildren(final W word) {}
 
 }
 
-class TestWordProcessor extends AbstractWordProcessor {
-	private final Collection<String> bkup;
-	private final Collection<String> ref = new HashSet<String>();
-
-	public TestWordProcessor(final Collection<String> vocabulary) {
-		bkup = new HashSet<String>();
-		bkup.addAll(vocabulary);
+/**
+ * Verifies that a tree contains exactly the words of a vocabulary in one
+ * traversal. The word of each node is built on a buffer shared with the
+ * path leading to it and looked up in the vocabulary. Since the words of
+ * different nodes differ, the tree has no word missing if it has as many
+ * complete nodes as the vocabulary has distinct words.
+ */
+class TestWordProcessor implements WordProcessor<WordNode> {
+	private final Collection<String> vocabulary;
+	private final StringBuilder sb = new StringBuilder();
+	/** The length of the word ending in each node on the current path. */
+	private final Deque<Integer> lengths = new ArrayDeque<Integer>();
+	private WordNode root;
+	private long found;
+	private boolean ok = true;
+
+	public TestWordProcessor(final Collection<String> theVocabulary) {
+		vocabulary = theVocabulary instanceof Set ? theVocabulary
+				: new HashSet<String>(theVocabulary);
 	}
 
 	@Override
-	public boolean processWord(final Word word) {
-		String realword = word.getWord();
-		if (word.getWord() != null && word.isComplete()) {
-			Word parent = word;
-			while ((parent = parent.getParent()) != null) {
-				if (parent.getWord() != null) {
-					realword = parent.getWord() + realword;
-				}
-			}
-			if (!bkup.contains(realword)) {
+	public boolean processWord(final WordNode word) {
+		if (root == null) {
+			root = word;
+		}
+		sb.setLength(lengths.isEmpty() ? 0 : lengths.peek());
+		if (word.hasWord()) {
+			word.appendWordTo(sb);
+		}
+		if (word.isComplete()) {
+			final String realword = sb.toString();
+			if (!vocabulary.contains(realword)) {
 				System.err.println(realword + " not in vocabulary");
+				ok = false;
 			}
 			else {
-				// System.out.println(realword + " in vocabulary");
-				ref.add(realword);
+				++found;
 			}
 		}
 		return true;
 	}
 
+	@Override
+	public void preChildren(final WordNode word) {
+		lengths.push(sb.length());
+	}
+
+	@Override
+	public void postChildren(final WordNode word) {
+		lengths.pop();
+	}
+
 	public boolean resultOk() {
-		bkup.removeAll(ref);
-		if (!bkup.isEmpty()) {
+		if (found < vocabulary.size()) {
 			System.err.println("bkup not empty! We still have:");
-			for (final String str : bkup) {
-				System.err.println(str);
+			for (final String str : vocabulary) {
+				if (!Word.contains(root, str)) {
+					System.err.println(str);
+				}
 			}
-
+			ok = false;
 		}
-		return bkup.isEmpty();
+		return ok;
 	}
 }
 
-class StringifyWordProcessor implements WordProcessor {
+class StringifyWordProcessor implements WordProcessor<WordNode> {
 
 	public StringifyWordProcessor() {
 
@@ -116,16 +162,16 @@ class StringifyWordProcessor implements WordProcessor {
 	}
 
 	@Override
-	public boolean processWord(final Word word) {
+	public boolean processWord(final WordNode word) {
 		final boolean DEBUG = false;
-		if (word.getWord() == null)
+		if (!word.hasWord())
 			return false;
 		sb.append(makeIndent());
 		if (DEBUG) {
 			sb.append(indent);
 			sb.append(": '");
 		}
-		sb.append(word.getWord());
+		word.appendWordTo(sb);
 		sb.append(" ");
 		if (withId) {
 			sb.append(word.getId());
@@ -140,12 +186,12 @@ class StringifyWordProcessor implements WordProcessor {
 	}
 
 	@Override
-	public void preChildren(final Word word) {
+	public void preChildren(final WordNode word) {
 		indent++;
 	}
 
 	@Override
-	public void postChildren(final Word word) {
+	public void postChildren(final WordNode word) {
 		indent--;
 	}
 
@@ -154,36 +200,205 @@ class StringifyWordProcessor implements WordProcessor {
 	}
 }
 
-class RegexWordProcessor implements WordProcessor {
+/**
+ * Collects the {@link TreeStatistics} of the processed words.
+ */
+class StatisticsWordProcessor implements WordProcessor<Word> {
+	private final Set<String> sources = Collections
+			.newSetFromMap(new IdentityHashMap<String, Boolean>());
+	private long nodes;
+	private long complete;
+	private int depth;
+	private int maxDepth;
+	private long totalDepth;
+	private long[] fanOut = new long[1];
+	private long labelCharacters;
+	private long retainedBytes;
+
+	@Override
+	public boolean processWord(final Word word) {
+		++nodes;
+		if (word.isComplete()) {
+			++complete;
+		}
+		maxDepth = Math.max(maxDepth, depth);
+		totalDepth += depth;
+		final int children = word.getChildren().size();
+		if (children >= fanOut.length) {
+			fanOut = Arrays.copyOf(fanOut, children + 1);
+		}
+		++fanOut[children];
+		labelCharacters += word.getWordLength();
+		retainedBytes += word.estimateRetainedBytes(sources);
+		return true;
+	}
+
+	@Override
+	public void preChildren(final Word word) {
+		++depth;
+	}
+
+	@Override
+	public void postChildren(final Word word) {
+		--depth;
+	}
+
+	public TreeStatistics getResult() {
+		return new TreeStatistics(nodes, complete, maxDepth,
+				nodes == 0 ? 0 : (double) totalDepth / nodes, fanOut.clone(),
+				labelCharacters, retainedBytes);
+	}
+}
+
+/**
+ * Generates a regex matching all words of a tree.
+ * 
+ * The regex is emitted incrementally, so it can be streamed to any
+ * {@link Appendable}, e.g. a {@link java.io.Writer}, without ever being held
+ * in memory as a whole. The "|" between alternatives is therefore written
+ * before every alternative but the first instead of being chopped off after
+ * the last one.
+ * 
+ * In atomic mode, groups are atomic (?>...) and optional groups possessive
+ * ?+, and the alternation of the root is preceded by a lookahead for the
+ * first characters of the words, so find() rejects most text positions
+ * without trying any alternative. Since the alternatives of a group start
+ * with different characters, at most one of them can match, and since
+ * nothing in the regex follows a group that could use characters given back
+ * by it, the engine never has to backtrack into a group. This only holds for
+ * the regex on its own, though: embedded in a larger regex followed by
+ * further patterns, the atomic regex may fail to match where the plain one
+ * matches.
+ */
+class RegexWordProcessor implements WordProcessor<WordNode> {
+
+	/**
+	 * The regex of a tree without words. It never matches, unlike the empty
+	 * regex, which matches every string at offset 0.
+	 */
+	static final String NOTHING = "(?!)";
+
+	private final Appendable out;
+
+	private final boolean atomic;
+
+	/** The builder the regex is collected in, if no Appendable was given. */
+	private final StringBuilder sb;
 
-	private final StringBuilder sb = new StringBuilder();
-	
 	private final Stack<String> parentheses = new Stack<String>();
 
+	/**
+	 * For each level, the single-character leaves collected into a character
+	 * class, which is written after the other children, or null.
+	 */
+	private final Stack<StringBuilder> classes = new Stack<StringBuilder>();
+
+	/** Whether the next word is preceded by a sibling. */
+	private boolean separate;
+
+	public RegexWordProcessor() {
+		this(false);
+	}
+
+	/**
+	 * Creates a processor that collects the regex, see {@link #getResult()}.
+	 * 
+	 * @param theAtomic
+	 *            whether to use atomic groups and possessive quantifiers
+	 */
+	public RegexWordProcessor(final boolean theAtomic) {
+		sb = new StringBuilder();
+		out = sb;
+		atomic = theAtomic;
+	}
+
+	/**
+	 * Creates a processor that writes the regex to out as it is generated.
+	 * 
+	 * @param theOut
+	 *            the destination of the regex. IOExceptions are rethrown as
+	 *            {@link UncheckedIOException}.
+	 */
+	public RegexWordProcessor(final Appendable theOut) {
+		this(theOut, false);
+	}
+
+	/**
+	 * Creates a processor that writes the regex to out as it is generated.
+	 * 
+	 * @param theOut
+	 *            the destination of the regex. IOExceptions are rethrown as
+	 *            {@link UncheckedIOException}.
+	 * @param theAtomic
+	 *            whether to use atomic groups and possessive quantifiers
+	 */
+	public RegexWordProcessor(final Appendable theOut, final boolean theAtomic) {
+		sb = null;
+		out = theOut;
+		atomic = theAtomic;
+	}
+
 	@Override
-	public boolean processWord(final Word word) {
-		if (word.getWord() == null)
+	public boolean processWord(final WordNode word) {
+		if (!word.hasWord()) {
+			if (!word.isComplete() && word.getChildren().isEmpty()) {
+				append(NOTHING);
+			}
+			return false;
+		}
+		if (!classes.isEmpty() && classes.peek() != null
+				&& isSingleCharLeaf(word)) {
+			classes.peek().append(word.charAt(0));
 			return false;
-		sb.append(word.getWord());
-		sb.append(word.getChildren().isEmpty() && parentheses.peek() != "]" ? "|" : "");
+		}
+		try {
+			if (separate && !"]".equals(parentheses.peek())) {
+				out.append('|');
+			}
+			word.appendWordTo(out);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		separate = true;
 		return false;
 	}
 
-	@Override
-	public void preChildren(final Word word) {
-		// sb.setLength(sb.length() - 1); // chop off "|"
+	/**
+	 * Processes a word and its children by appending their regex generated
+	 * before, instead of processing them one by one.
+	 */
+	private void processRegex(final String regex) {
+		append(separate ? "|" : "");
+		append(regex);
+		separate = true;
+	}
 
-		sb.append(getOpeningParenthesis(word));
+	@Override
+	public void preChildren(final WordNode word) {
+		append(getOpeningParenthesis(word));
+		classes.push(hasMixedClass(word) ? new StringBuilder() : null);
+		separate = false;
 	}
 
 	@Override
-	public void postChildren(final Word word) {
-		if(parentheses.peek() != "]") {
-			sb.setLength(sb.length() - 1); // chop off "|"
+	public void postChildren(final WordNode word) {
+		final StringBuilder chars = classes.pop();
+		if (chars != null) {
+			append(separate ? "|[" : "[");
+			append(chars.toString());
+			append("]");
+		}
+		append(getClosingParenthesis());
+		append(word.isComplete() ? atomic ? "?+" : "?" : "");
+		separate = true;
+	}
+
+	private void append(final String str) {
+		try {
+			out.append(str);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		sb.append(getClosingParenthesis());
-		sb.append(word.isComplete() ? "?" : "");
-		sb.append("|");
 	}
 
 	/**
@@ -199,41 +414,145 @@ class RegexWordProcessor implements WordProcessor {
 	 * - word has more than one child or
 	 * - the one child c has children or c.word.length > 1
 	 * 
+	 * If all of several children are single characters without children,
+	 * they are put into a character class instead, also at the root.
+	 * 
 	 * @param word
 	 * @return true if children of this word should be put in parenthesis.
 	 */
-	private String getOpeningParenthesis(final Word word) {
-		if (word.getWord() == null) {
-			parentheses.push("");
-			return "";
+	private String getOpeningParenthesis(final WordNode word) {
+		final List<WordNode> children = new ArrayList<WordNode>(word.getChildren());
+		if (!word.hasWord() && children.size() > 1
+				&& children.stream().allMatch(RegexWordProcessor::isSingleCharLeaf)) {
+			parentheses.push("]");
+			return "[";
+		}
+		if (!word.hasWord()) {
+			// the empty word makes the whole regex optional
+			if (atomic && (word.isComplete() || children.size() > 1)) {
+				parentheses.push(")");
+				return word.isComplete() ? "(?>" : lookahead(children) + "(?>";
+			}
+			parentheses.push(word.isComplete() ? ")" : "");
+			return word.isComplete() ? "(?:" : "";
 		}
-		final List<Word> children = new ArrayList<Word>(word.getChildren());
 		if(children.size() > 1){
-			if(children.stream().allMatch(child -> child.getWord().length() == 1)){
+			if(children.stream().allMatch(RegexWordProcessor::isSingleCharLeaf)){
 				parentheses.push("]");
 				return "[";			
 			} else {
 				parentheses.push(")");
-				return "(?:";			
+				return group();
 			}
 		} else if(!children.get(0).getChildren().isEmpty()) {
 			parentheses.push(")");
-			return "(?:";			
-		} else if(children.get(0).getWord().length() > 1) {
+			return group();			
+		} else if(children.get(0).getWordLength() > 1) {
 			parentheses.push(")");
-			return "(?:";			
+			return group();			
 		} else {
 			parentheses.push("");
 			return "";			
 		}
 	}
+
+	private static boolean isSingleCharLeaf(final WordNode word) {
+		return word.getWordLength() == 1 && word.getChildren().isEmpty();
+	}
+
+	/**
+	 * Checks whether some, but not all children of this word are single
+	 * characters without children, at least two of them. These are written
+	 * as a character class after the other children, e.g. a(?:ef|[bcdg])
+	 * instead of a(?:b|c|d|ef|g).
+	 */
+	private static boolean hasMixedClass(final WordNode word) {
+		int singleCharLeaves = 0;
+		for (final WordNode child : word.getChildren()) {
+			if (isSingleCharLeaf(child)) {
+				++singleCharLeaves;
+			}
+		}
+		return singleCharLeaves >= 2
+				&& singleCharLeaves < word.getChildren().size();
+	}
+
+	private String group() {
+		return atomic ? "(?>" : "(?:";
+	}
+
+	/**
+	 * Returns a lookahead for the first characters of the children. Inner
+	 * alternations don't get one: their alternatives already fail on the
+	 * first character, and the lookahead would only add work.
+	 */
+	private static String lookahead(final List<WordNode> children) {
+		final char[] first = new char[children.size()];
+		for (int i = 0; i < first.length; i++) {
+			first[i] = children.get(i).charAt(0);
+		}
+		Arrays.sort(first);
+		return "(?=[" + new String(first) + "])";
+	}
 	
 	private String getClosingParenthesis() {
 		return parentheses.pop();
 	}
 
+	/**
+	 * Generates the regex of a tree in sorted order, reusing the regexes
+	 * cached in its words and caching the ones generated.
+	 * 
+	 * @see Word#toRegex()
+	 */
+	static String toRegex(final Word root) {
+		if (root.getCachedRegex() != null) {
+			return root.getCachedRegex();
+		}
+		final RegexWordProcessor regex = new RegexWordProcessor();
+		// the start of the regex of each word whose children are processed
+		final Deque<Integer> starts = new ArrayDeque<Integer>();
+		root.processAll(new WordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				if (word != root && word.getCachedRegex() != null) {
+					regex.processRegex(word.getCachedRegex());
+					return false;
+				}
+				regex.processWord(word);
+				if (!word.getChildren().isEmpty()) {
+					// words with children are never part of a character class
+					starts.push(word.hasWord() ? regex.sb.length()
+							- word.getWordLength() : 0);
+				}
+				return true;
+			}
+
+			@Override
+			public void preChildren(final Word word) {
+				regex.preChildren(word);
+			}
+
+			@Override
+			public void postChildren(final Word word) {
+				regex.postChildren(word);
+				word.setCachedRegex(regex.sb.substring(starts.pop()));
+			}
+		}, true, true);
+		return regex.getResult();
+	}
+
+	/**
+	 * Returns the generated regex.
+	 * 
+	 * @return the generated regex
+	 * @throws IllegalStateException
+	 *             if the regex was written to an Appendable given on creation
+	 */
 	public String getResult() {
-		sb.setLength(sb.length() - 1); // chop off "|"
+		if (sb == null) {
+			throw new IllegalStateException("regex was written to " + out);
+		}
 		return sb.toString();
 	}
 }
@@ -3,15 +3,44 @@ package net.xmlizer.wordhierarchy;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import net.xmlizer.permutation.PermutationHelper;
 
 import org.junit.Test;
@@ -100,8 +129,7 @@ public class WordHierarchyTest {
 		assertEquals("Eueres?", toRegexSorted(tree));
 	}
 
-	// top level single chars not implemented yet, i.e. E U L will be E|U|L instead of [EUL]  
-	// @Test
+	@Test
 	public void testEUL() {
 		final Word tree = WordHierarchyBuilder.createWordTree("E U L"
 				.split("\\s"));
@@ -109,21 +137,6 @@ public class WordHierarchyTest {
 	}
 	
 	// TODO:
-	// 1. mix groups with character classes.
-	// -------------------------------------
-	// ab ac ad aef ag
-	// all are children of a: b, c, d, ef, g
-	// but not all have length 1, so we get:
-	// a(?:g|b|d|ef|c)
-	// instead of
-	// a(?:ef[bcdg])
-	// we should test for subgroups of children that have length 1
-	// and put them together into a character class ("[...]") along inside
-	// a group with the longer children, e.g. the children b,c,d,g as a subgroup
-	// within the group with 1 sibling ef.
-	// 2. top-level single characters should go into a character class, too.
-	// -------------------------------------
-	//
 	// 3. we're recognizing common substrings from the left, but not from the right!
 	// -------------------------------------
 	// e.g. ab, ac, ad becomes a[bcd] but
@@ -134,11 +147,44 @@ public class WordHierarchyTest {
 	// abcd ebcf should result in [ae]bc[df]
 	// 
 	
-	// @Test
+	@Test
 	public void testMixGroupsWithCharacterClasses() {
 		final Word tree = WordHierarchyBuilder.createWordTree("ab ac ad aef ag"
 				.split("\\s"));
-		assertEquals("a(?:ef[bcdg])", toRegexSorted(tree));
+		assertEquals("a(?:ef|[bcdg])", toRegexSorted(tree));
+	}
+
+	@Test
+	public void testRegexRandom() {
+		final Random random = new Random(13);
+		for (int round = 0; round < 20; round++) {
+			final Set<String> vocabulary = new HashSet<String>();
+			for (int i = 0; i < 30; i++) {
+				vocabulary.add(randomWord(random, random.nextInt(5)));
+			}
+			final Pattern pattern = Pattern.compile(toRegexSorted(
+					WordHierarchyBuilder.createWordTree(vocabulary)));
+			final List<String> candidates = new ArrayList<String>();
+			candidates.add("");
+			for (int i = 0; i < candidates.size(); i++) {
+				final String candidate = candidates.get(i);
+				assertEquals(pattern.pattern() + " " + candidate, vocabulary
+						.contains(candidate), pattern.matcher(candidate)
+						.matches());
+				if (candidate.length() < 5) {
+					for (char c = 'a'; c <= 'c'; c++) {
+						candidates.add(candidate + c);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMixGroupsWithOneCharacter() {
+		final Word tree = WordHierarchyBuilder.createWordTree("ab aef"
+				.split("\\s"));
+		assertEquals("a(?:b|ef)", toRegexSorted(tree));
 	}
 	
 //	 @Test
@@ -155,18 +201,18 @@ public class WordHierarchyTest {
 		assertEquals("[ae]bc[df]", toRegexSorted(tree));
 	}
 	
-//	@Test
+	@Test
 	public void testEULe() {
 		final Word tree = WordHierarchyBuilder.createWordTree("E U Le"
 				.split("\\s"));
-		assertEquals("E|Le|U", toRegexSorted(tree));
+		assertEquals("Le|[EU]", toRegexSorted(tree));
 	}
 
 	@Test
 	public void testEULeL() {
 		final Word tree = WordHierarchyBuilder.createWordTree("E U Le L"
 				.split("\\s"));
-		assertEquals("E|Le?|U", toRegexSorted(tree));
+		assertEquals("Le?|[EU]", toRegexSorted(tree));
 	}
 
 	@Test
@@ -221,6 +267,1063 @@ public class WordHierarchyTest {
 		assertEquals("aberi|oberj", toRegexSorted(tree));
 	}
 
+	@Test
+	public void testWideFanOut() {
+		// more children than the index threshold, some of them outside Latin-1
+		final String[] input = "alpha beta gamma delta epsilon zeta eta theta iota kappa \u03bb\u03b1 \u03bc\u03c5 \u03bb\u03b5 \u03bd\u03c5 etaa beta2 be"
+				.split("\\s");
+		final Word tree = WordHierarchyBuilder.createWordTree(input);
+		assertTrue(tree.testIt(Arrays.asList(input)));
+		assertEquals(12, tree.getChildren().size());
+		assertEquals("be", tree.getChild('b').getWord());
+		assertEquals("\u03bb", tree.getChild('\u03bb').getWord());
+		assertEquals(null, tree.getChild('x'));
+	}
+
+	@Test
+	public void testCreateFromSorted() {
+		final String[] sorted = du.clone();
+		Arrays.sort(sorted);
+		final Word tree = WordHierarchyBuilder.createWordTreeFromSorted(Arrays
+				.asList(sorted).iterator());
+		assertTrue(tree.testIt(Arrays.asList(du)));
+		assertEquals(WordHierarchyBuilder.createWordTree(du).myToStringSorted(),
+				tree.myToStringSorted());
+
+		final String[] withDuplicates = "3 31 3112 3112 3122 3132 31425"
+				.split("\\s");
+		assertEquals(WordHierarchyBuilder.createWordTree(withDuplicates)
+				.myToStringSorted(), WordHierarchyBuilder
+				.createWordTreeFromSorted(Arrays.asList(withDuplicates)
+						.iterator()).myToStringSorted());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateFromUnsorted() {
+		WordHierarchyBuilder.createWordTreeFromSorted(Arrays.asList(shortEuch)
+				.iterator());
+	}
+
+	@Test
+	public void testCreateParallel() {
+		final List<String> vocabulary = randomVocabulary(20000);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final Word tree = WordHierarchyBuilder.createWordTreeParallel(
+					vocabulary, pool);
+			assertTrue(tree.testIt(vocabulary));
+			assertEquals(WordHierarchyBuilder.createWordTree(vocabulary)
+					.myToStringSorted(), tree.myToStringSorted());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testCreateParallelDeepChain() {
+		// each word is the prefix of the next words, so the partitions
+		// hardly shrink along the chain
+		final List<String> vocabulary = new ArrayList<String>();
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append('a');
+			vocabulary.add(sb.toString());
+			vocabulary.add(sb + "b");
+		}
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final Word tree = WordHierarchyBuilder.createWordTreeParallel(
+					vocabulary, pool);
+			assertTrue(tree.testIt(vocabulary));
+			assertEquals(toRegexSorted(WordHierarchyBuilder
+					.createWordTree(vocabulary)), toRegexSorted(tree));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testAddWord() {
+		final List<String> vocabulary = randomVocabulary(2000);
+		final Word tree = new Word();
+		for (final String word : vocabulary) {
+			WordHierarchyBuilder.addWord(tree, word);
+		}
+		assertTrue(tree.testIt(vocabulary));
+		assertEquals(WordHierarchyBuilder.createWordTree(vocabulary)
+				.myToStringSorted(), tree.myToStringSorted());
+	}
+
+	@Test
+	public void testAddConcurrently() throws InterruptedException {
+		final List<String> vocabulary = randomVocabulary(20000);
+		final BlockingQueue<String> queue = new LinkedBlockingQueue<String>(
+				vocabulary);
+		final Word tree = new Word();
+		final List<Thread> consumers = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			consumers.add(new Thread() {
+				@Override
+				public void run() {
+					String word;
+					while ((word = queue.poll()) != null) {
+						WordHierarchyBuilder.addWordConcurrently(tree, word);
+					}
+				}
+			});
+		}
+		for (final Thread consumer : consumers) {
+			consumer.start();
+		}
+		for (final Thread consumer : consumers) {
+			consumer.join();
+		}
+		assertTrue(tree.testIt(vocabulary));
+		assertEquals(WordHierarchyBuilder.createWordTree(vocabulary)
+				.myToStringSorted(), tree.myToStringSorted());
+		final Set<Integer> ids = new HashSet<Integer>();
+		final int[] count = new int[1];
+		tree.processAll(new AbstractWordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				ids.add(word.getId());
+				count[0]++;
+				return true;
+			}
+		});
+		assertEquals(count[0], ids.size());
+	}
+
+	@Test
+	public void testCreateFromFile() throws IOException {
+		final File file = File.createTempFile("vocabulary", ".txt");
+		file.deleteOnExit();
+		final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		for (final String word : du) {
+			out.write(word);
+			out.write(word.startsWith("E") ? "\r\n" : "\n\n");
+		}
+		out.write("\u03bb\u03b1");
+		out.close();
+		final List<String> vocabulary = new ArrayList<String>(Arrays.asList(du));
+		vocabulary.add("\u03bb\u03b1");
+		final Word tree = WordHierarchyBuilder.createWordTree(file.toPath(),
+				false);
+		assertTrue(tree.testIt(vocabulary));
+		assertEquals(WordHierarchyBuilder.createWordTree(vocabulary)
+				.myToStringSorted(), tree.myToStringSorted());
+	}
+
+	@Test
+	public void testRemove() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		assertFalse(tree.remove("Eu"));
+		assertFalse(tree.remove("Eurers"));
+		assertFalse(tree.remove("Ex"));
+		assertTrue(tree.remove("Euch"));
+		assertFalse(tree.remove("Euch"));
+		assertEquals("Eu(?:er(?:e[ms])?|rer?)", toRegexSorted(tree));
+		assertTrue(tree.remove("Euer"));
+		assertTrue(tree.remove("Eure"));
+		assertEquals(WordHierarchyBuilder.createWordTree(
+				"Eueres Euerem Eurer".split(" ")).myToStringSorted(), tree
+				.myToStringSorted());
+		assertTrue(tree.remove("Eurer"));
+		assertEquals("Euere[ms]", toRegexSorted(tree));
+	}
+
+	@Test
+	public void testRemoveRandom() {
+		final Random random = new Random(17);
+		final Set<String> words = new HashSet<String>(randomVocabulary(2000));
+		words.add("");
+		final List<String> vocabulary = new ArrayList<String>(words);
+		final Word tree = WordHierarchyBuilder.createWordTree(vocabulary);
+		Collections.shuffle(vocabulary, random);
+		final int split = vocabulary.size() * 3 / 4;
+		for (final String word : vocabulary.subList(0, split)) {
+			assertTrue(word, tree.remove(word));
+		}
+		final List<String> kept = vocabulary.subList(split, vocabulary.size());
+		assertEquals(WordHierarchyBuilder.createWordTree(kept)
+				.myToStringSorted(), tree.myToStringSorted());
+		assertTrue(tree.testIt(kept));
+	}
+
+	@Test
+	public void testCachedRegex() {
+		final Word tree = WordHierarchyBuilder.createWordTree(du);
+		assertEquals(toRegexSorted(tree), tree.toRegex());
+		final Word deinige = tree.getChild('D').getChild('e').getChild('i');
+		final String cached = deinige.getCachedRegex();
+		assertTrue(cached != null);
+		WordHierarchyBuilder.addWord(tree, "Euerchen");
+		WordHierarchyBuilder.addWord(tree, "Di");
+		assertTrue(tree.remove("Eurige"));
+		assertEquals(toRegexSorted(tree), tree.toRegex());
+		assertTrue(cached == deinige.getCachedRegex());
+	}
+
+	@Test
+	public void testCachedRegexRandom() {
+		final Random random = new Random(19);
+		final List<String> vocabulary = new ArrayList<String>();
+		final Word tree = new Word();
+		for (int i = 0; i < 300; i++) {
+			final String word = randomWord(random, random.nextInt(6));
+			if (random.nextInt(3) == 0 && !vocabulary.isEmpty()) {
+				tree.remove(vocabulary.remove(random.nextInt(vocabulary
+						.size())));
+			}
+			else {
+				WordHierarchyBuilder.addWord(tree, word);
+				vocabulary.add(word);
+			}
+			assertEquals(toRegexSorted(tree), tree.toRegex());
+		}
+	}
+
+	@Test
+	public void testTreeStatistics() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		final TreeStatistics statistics = TreeStatistics.of(tree);
+		assertEquals(9, statistics.getNodeCount());
+		assertEquals(6, statistics.getCompleteCount());
+		assertEquals(4, statistics.getMaxDepth());
+		assertEquals(21.0 / 9, statistics.getAverageDepth(), 1e-9);
+		assertEquals("[4, 3, 1, 1]", Arrays.toString(statistics.getFanOut()));
+		assertEquals(12, statistics.getLabelCharacters());
+		final long retainedBytes = statistics.getRetainedBytes();
+		assertTrue(retainedBytes > 9 * Word.SHALLOW_SIZE);
+		// the cached regexes are retained, too
+		tree.toRegex();
+		assertTrue(TreeStatistics.of(tree).getRetainedBytes() > retainedBytes);
+	}
+
+	@Test
+	public void testShallowSize() {
+		// header, id, start and end, six references, complete, three longs
+		assertEquals(12 + 3 * 4 + 6 * 4 + 1 + 3 * 8 + 7 & ~7,
+				Word.SHALLOW_SIZE);
+		assertEquals(16, Word.estimateShallowBytes(Object.class));
+		assertEquals(Word.SHALLOW_SIZE, new Word()
+				.estimateRetainedBytes(new HashSet<String>()));
+	}
+
+	private static String toString(
+			final WordHierarchyBuilder.InsertionCounts counts) {
+		final List<Long> list = new ArrayList<Long>();
+		for (final WordHierarchyBuilder.Insertion insertion : WordHierarchyBuilder.Insertion
+				.values()) {
+			list.add(counts.get(insertion));
+		}
+		return list.toString();
+	}
+
+	@Test
+	public void testInsertionCounts() {
+		// extend, shorten, split, complete
+		final WordHierarchyBuilder.InsertionCounts counts = new WordHierarchyBuilder.InsertionCounts();
+		final Word tree = WordHierarchyBuilder.createWordTree(Arrays.asList(
+				shortEuch).iterator(), counts);
+		assertEquals("[4, 0, 2, 0]", toString(counts));
+		final WordHierarchyBuilder.InsertionCounts added = new WordHierarchyBuilder.InsertionCounts();
+		WordHierarchyBuilder.addWord(tree, "Eur", added);
+		WordHierarchyBuilder.addWordConcurrently(tree, "Euere", added);
+		WordHierarchyBuilder.addWordConcurrently(tree, "Euch", added);
+		assertEquals("[0, 1, 0, 2]", toString(added));
+		// the counts of other builds are not affected
+		assertEquals("[4, 0, 2, 0]", toString(counts));
+		final List<String> sorted = new ArrayList<String>(
+				Arrays.asList(shortEuch));
+		sorted.add("Eur");
+		sorted.add("Eure");
+		Collections.sort(sorted);
+		final WordHierarchyBuilder.InsertionCounts sortedCounts = new WordHierarchyBuilder.InsertionCounts();
+		WordHierarchyBuilder.createWordTreeFromSorted(sorted.iterator(),
+				sortedCounts);
+		// a sorted word never ends within the path of its predecessor
+		assertEquals("[5, 0, 2, 1]", toString(sortedCounts));
+		final WordHierarchyBuilder.InsertionCounts parallelCounts = new WordHierarchyBuilder.InsertionCounts();
+		WordHierarchyBuilder.createWordTreeParallel(Arrays.asList(shortEuch),
+				ForkJoinPool.commonPool(), parallelCounts);
+		assertEquals("[4, 0, 2, 0]", toString(parallelCounts));
+	}
+
+	@Test
+	public void testBuildEvent() throws IOException {
+		final File file = File.createTempFile("build", ".jfr");
+		file.deleteOnExit();
+		try (Recording recording = new Recording()) {
+			recording.enable("net.xmlizer.wordhierarchy.Build");
+			recording.start();
+			WordHierarchyBuilder.createWordTree(shortEuch);
+			recording.stop();
+			recording.dump(file.toPath());
+		}
+		final List<RecordedEvent> events = RecordingFile.readAllEvents(file
+				.toPath());
+		assertEquals(1, events.size());
+		final RecordedEvent event = events.get(0);
+		assertEquals("createWordTree", event.getString("builder"));
+		assertEquals(6, event.getLong("words"));
+		assertEquals(4, event.getLong("extend"));
+		assertEquals(0, event.getLong("shorten"));
+		assertEquals(2, event.getLong("split"));
+		assertEquals(0, event.getLong("complete"));
+	}
+
+	private static List<String> toList(final Iterator<String> words) {
+		final List<String> list = new ArrayList<String>();
+		while (words.hasNext()) {
+			list.add(words.next());
+		}
+		return list;
+	}
+
+	@Test
+	public void testCompletions() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		assertEquals("[Euer, Euerem, Eueres]",
+				toList(tree.completions("Euer")).toString());
+		// the prefix ends within a word
+		assertEquals("[Eure, Eurer]", toList(tree.completions("Eur"))
+				.toString());
+		assertEquals("[Eueres]", toList(tree.completions("Eueres"))
+				.toString());
+		assertEquals("[]", toList(tree.completions("Euerx")).toString());
+		assertEquals("[]", toList(tree.completions("x")).toString());
+		assertEquals("[Euch, Euer, Euerem, Eueres, Eure, Eurer]",
+				toList(tree.completions("")).toString());
+		assertEquals(toList(tree.completions("Eu")), toList(tree.freeze()
+				.completions("Eu")));
+	}
+
+	@Test
+	public void testCompletionsRandom() {
+		final List<String> vocabulary = new ArrayList<String>(
+				new HashSet<String>(randomVocabulary(2000)));
+		vocabulary.add("");
+		Collections.sort(vocabulary);
+		final Word tree = WordHierarchyBuilder.createWordTree(vocabulary);
+		final Random random = new Random(21);
+		for (int i = 0; i < 200; i++) {
+			final String prefix = randomWord(random, random.nextInt(5));
+			final List<String> expected = new ArrayList<String>();
+			for (final String word : vocabulary) {
+				if (word.startsWith(prefix)) {
+					expected.add(word);
+				}
+			}
+			assertEquals(expected, toList(tree.completions(prefix)));
+		}
+	}
+
+	@Test
+	public void testTopCompletions() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		assertTrue(tree.setScore("Euerem", 5));
+		assertTrue(tree.setScore("Eure", 7));
+		assertTrue(tree.setScore("Euch", 5));
+		assertFalse(tree.setScore("Eue", 9));
+		assertFalse(tree.setScore("Euerx", 9));
+		assertEquals(7, tree.getMaxScore());
+		assertEquals("[Eure, Euch, Euerem]", tree.topCompletions("Eu", 3)
+				.toString());
+		assertEquals("[Euerem, Euer, Eueres]", tree.topCompletions("Eue", 5)
+				.toString());
+		assertEquals("[]", tree.topCompletions("x", 5).toString());
+		assertEquals("[]", tree.topCompletions("Eu", 0).toString());
+		// the maximum scores follow changes of the tree
+		tree.remove("Eure");
+		assertEquals(5, tree.getMaxScore());
+		assertEquals("[Euch, Euerem, Euer]", tree.topCompletions("", 3)
+				.toString());
+		assertTrue(tree.setScore("Euch", 1));
+		assertEquals("[Euerem, Euch]", tree.topCompletions("", 2).toString());
+		WordHierarchyBuilder.addWord(tree, "Euere");
+		assertEquals(5, tree.getChild('E').getMaxScore());
+	}
+
+	@Test
+	public void testTopCompletionsAddConcurrently()
+			throws InterruptedException {
+		final List<String> vocabulary = new ArrayList<String>(
+				new HashSet<String>(randomVocabulary(20000)));
+		final List<String> scored = vocabulary.subList(0, 2000);
+		final Word tree = WordHierarchyBuilder.createWordTree(scored);
+		final Map<String, Long> scores = new HashMap<String, Long>();
+		for (int i = 0; i < scored.size(); i++) {
+			scores.put(scored.get(i), (long) 1 + i % 97);
+			assertTrue(tree.setScore(scored.get(i), 1 + i % 97));
+		}
+		final BlockingQueue<String> queue = new LinkedBlockingQueue<String>(
+				vocabulary.subList(scored.size(), vocabulary.size()));
+		final List<Thread> consumers = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			consumers.add(new Thread() {
+				@Override
+				public void run() {
+					String word;
+					while ((word = queue.poll()) != null) {
+						WordHierarchyBuilder.addWordConcurrently(tree, word);
+					}
+				}
+			});
+		}
+		for (final Thread consumer : consumers) {
+			consumer.start();
+		}
+		for (final Thread consumer : consumers) {
+			consumer.join();
+		}
+		assertTrue(tree.testIt(vocabulary));
+		final List<String> expected = new ArrayList<String>(vocabulary);
+		Collections.sort(expected, new Comparator<String>() {
+			@Override
+			public int compare(final String a, final String b) {
+				final Long scoreA = scores.containsKey(a) ? scores.get(a) : 0;
+				final Long scoreB = scores.containsKey(b) ? scores.get(b) : 0;
+				final int c = scoreB.compareTo(scoreA);
+				return c != 0 ? c : a.compareTo(b);
+			}
+		});
+		assertEquals(expected, tree.topCompletions("", vocabulary.size()));
+		// the pruning relies on the maximum scores of the split subtrees
+		assertEquals(expected.subList(0, 50), tree.topCompletions("", 50));
+	}
+
+	@Test
+	public void testTopCompletionsRandom() {
+		final List<String> vocabulary = new ArrayList<String>(
+				new HashSet<String>(randomVocabulary(2000)));
+		final Word tree = WordHierarchyBuilder.createWordTree(vocabulary);
+		final Random random = new Random(22);
+		final Map<String, Long> scores = new HashMap<String, Long>();
+		for (final String word : vocabulary) {
+			final long score = random.nextInt(50);
+			scores.put(word, score);
+			assertTrue(tree.setScore(word, score));
+		}
+		for (int i = 0; i < 200; i++) {
+			if (i % 10 == 0) {
+				final String word = vocabulary.remove(random
+						.nextInt(vocabulary.size()));
+				tree.remove(word);
+			}
+			final String prefix = randomWord(random, random.nextInt(4));
+			final List<String> expected = new ArrayList<String>();
+			for (final String word : vocabulary) {
+				if (word.startsWith(prefix)) {
+					expected.add(word);
+				}
+			}
+			Collections.sort(expected, new Comparator<String>() {
+				@Override
+				public int compare(final String a, final String b) {
+					final int c = scores.get(b).compareTo(scores.get(a));
+					return c != 0 ? c : a.compareTo(b);
+				}
+			});
+			final int k = 1 + random.nextInt(20);
+			assertEquals(expected.subList(0, Math.min(k, expected.size())),
+					tree.topCompletions(prefix, k));
+		}
+	}
+
+	@Test
+	public void testApproximateMatches() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		assertEquals("[Euer]", tree.approximateMatches("Euer", 0).toString());
+		assertEquals("[Euch, Euer]", tree.approximateMatches("Eucr", 1)
+				.toString());
+		assertEquals("[Euer, Euerem, Eueres, Eure, Eurer]", tree
+				.approximateMatches("Euerer", 2).toString());
+		assertEquals("[]", tree.approximateMatches("xyz", 2).toString());
+		assertEquals("[]", tree.approximateMatches("", 3).toString());
+		assertEquals("[Euch, Euer, Eure]", tree.approximateMatches("", 4)
+				.toString());
+	}
+
+	private static int levenshtein(final String a, final String b) {
+		final int[][] d = new int[a.length() + 1][b.length() + 1];
+		for (int i = 0; i <= a.length(); i++) {
+			for (int j = 0; j <= b.length(); j++) {
+				if (i == 0 || j == 0) {
+					d[i][j] = i + j;
+				}
+				else {
+					d[i][j] = Math.min(Math.min(d[i - 1][j], d[i][j - 1]) + 1,
+							d[i - 1][j - 1]
+									+ (a.charAt(i - 1) == b.charAt(j - 1) ? 0
+											: 1));
+				}
+			}
+		}
+		return d[a.length()][b.length()];
+	}
+
+	@Test
+	public void testApproximateMatchesRandom() {
+		final List<String> vocabulary = new ArrayList<String>(
+				new HashSet<String>(randomVocabulary(2000)));
+		vocabulary.add("");
+		Collections.sort(vocabulary);
+		final Word tree = WordHierarchyBuilder.createWordTree(vocabulary);
+		final Random random = new Random(23);
+		for (int i = 0; i < 100; i++) {
+			final String term = randomWord(random, random.nextInt(8));
+			final int maxDistance = random.nextInt(4);
+			final List<String> expected = new ArrayList<String>();
+			for (final String word : vocabulary) {
+				if (levenshtein(word, term) <= maxDistance) {
+					expected.add(word);
+				}
+			}
+			assertEquals(expected, tree.approximateMatches(term, maxDistance));
+		}
+	}
+
+	@Test
+	public void testWords() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		final List<String> sorted = new ArrayList<String>(
+				Arrays.asList(shortEuch));
+		Collections.sort(sorted);
+		assertEquals(sorted, tree.words().collect(Collectors.toList()));
+		assertEquals(6, tree.getWordCount());
+		assertEquals(3, tree.getChild('E').getChild('e').getWordCount());
+		// the counts follow changes of the tree
+		tree.remove("Euer");
+		WordHierarchyBuilder.addWord(tree, "Eu");
+		WordHierarchyBuilder.addWord(tree, "Euere");
+		assertEquals(7, tree.getWordCount());
+		assertEquals(7, tree.words().count());
+		assertEquals(tree.words().collect(Collectors.toList()), tree.freeze()
+				.words().collect(Collectors.toList()));
+		assertEquals(0, new Word().words().count());
+	}
+
+	@Test
+	public void testWordsParallel() {
+		final List<String> vocabulary = new ArrayList<String>(
+				new HashSet<String>(randomVocabulary(20000)));
+		vocabulary.add("");
+		Collections.sort(vocabulary);
+		final Word tree = WordHierarchyBuilder.createWordTree(vocabulary);
+		assertEquals(vocabulary, tree.words().parallel()
+				.collect(Collectors.toList()));
+		assertEquals(vocabulary, tree.freeze().words().parallel()
+				.collect(Collectors.toList()));
+		// every split is sized exactly
+		final Deque<Spliterator<String>> spliterators = new ArrayDeque<Spliterator<String>>();
+		spliterators.push(tree.words().spliterator());
+		long total = 0;
+		int splits = 0;
+		while (!spliterators.isEmpty()) {
+			final Spliterator<String> spliterator = spliterators.pop();
+			final Spliterator<String> prefix = spliterator.trySplit();
+			if (prefix != null) {
+				++splits;
+				spliterators.push(spliterator);
+				spliterators.push(prefix);
+				continue;
+			}
+			final long size = spliterator.estimateSize();
+			final long[] count = new long[1];
+			spliterator.forEachRemaining(new Consumer<String>() {
+				@Override
+				public void accept(final String word) {
+					++count[0];
+				}
+			});
+			assertEquals(size, count[0]);
+			total += size;
+		}
+		assertEquals(vocabulary.size(), total);
+		assertTrue(splits > 100);
+	}
+
+	@Test
+	public void testFreeze() {
+		final Word tree = WordHierarchyBuilder.createWordTree(du);
+		final FrozenWordTree frozen = tree.freeze();
+		assertEquals(tree.myToStringSorted(), frozen.myToString());
+		final RegexWordProcessor wp = new RegexWordProcessor();
+		frozen.processAll(wp);
+		assertEquals(toRegexSorted(tree), wp.getResult());
+		assertTrue(frozen.testIt(Arrays.asList(du)));
+		assertEquals("Eu", frozen.getRoot().getChild('E').getWord());
+		assertEquals(null, frozen.getRoot().getChild('x'));
+	}
+
+	@Test
+	public void testProcessDeepTree() {
+		final Word root = new Word();
+		Word word = root;
+		for (int i = 0; i < 100000; i++) {
+			word = word.addChild("a", true);
+		}
+		final int[] counts = new int[3];
+		root.processAll(new WordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word theWord) {
+				counts[0]++;
+				return true;
+			}
+
+			@Override
+			public void preChildren(final Word theWord) {
+				counts[1]++;
+			}
+
+			@Override
+			public void postChildren(final Word theWord) {
+				counts[2]++;
+			}
+		}, true);
+		assertEquals(100001, counts[0]);
+		assertEquals(100000, counts[1]);
+		assertEquals(100000, counts[2]);
+	}
+
+	@Test
+	public void testProcessFrozenDeepTree() {
+		final Word root = new Word();
+		Word word = root;
+		for (int i = 0; i < 100000; i++) {
+			word = word.addChild("a", true);
+		}
+		word.addChild("b", true);
+		word.addChild("c", true);
+		final FrozenWordTree frozen = root.freeze();
+		final int[] counts = new int[3];
+		final StringBuilder leaves = new StringBuilder();
+		frozen.processAll(new WordProcessor<WordNode>() {
+			@Override
+			public boolean processWord(final WordNode theWord) {
+				counts[0]++;
+				if (theWord.getChildren().isEmpty()) {
+					theWord.appendWordTo(leaves);
+				}
+				return true;
+			}
+
+			@Override
+			public void preChildren(final WordNode theWord) {
+				counts[1]++;
+			}
+
+			@Override
+			public void postChildren(final WordNode theWord) {
+				// the nodes of the path are left in place
+				assertEquals(frozen.size() - counts[2] - 3, theWord.getId());
+				counts[2]++;
+			}
+		});
+		assertEquals(100003, counts[0]);
+		assertEquals(100001, counts[1]);
+		assertEquals(100001, counts[2]);
+		assertEquals("bc", leaves.toString());
+		assertEquals(100002, frozen.getRoot().getWordCount());
+	}
+
+	@Test
+	public void testProcessPruned() {
+		final Word tree = WordHierarchyBuilder.createWordTree(ihr);
+		final StringBuilder sb = new StringBuilder();
+		tree.processAll(new AbstractWordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				if (word.hasWord()) {
+					sb.append(word.getWord()).append(' ');
+				}
+				return !"r".equals(word.getWord());
+			}
+		}, true, true);
+		assertEquals("Ih nen r Sie ", sb.toString());
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		final Word tree = WordHierarchyBuilder.createWordTree(du);
+		final File file = File.createTempFile("snapshot", ".wht");
+		file.deleteOnExit();
+		tree.freeze().write(file.toPath());
+		final FrozenWordTree mapped = FrozenWordTree.map(file.toPath());
+		assertEquals(tree.myToStringSorted(), mapped.myToString());
+		assertTrue(mapped.testIt(Arrays.asList(du)));
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() - 1);
+		raf.write('x');
+		raf.close();
+		try {
+			FrozenWordTree.map(file.toPath());
+			fail("corrupt snapshot accepted");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSnapshotCorruptHeader() throws IOException {
+		final Word tree = WordHierarchyBuilder.createWordTree(du);
+		final File file = File.createTempFile("snapshot", ".wht");
+		file.deleteOnExit();
+		// node counts whose section sizes overflow an int, a negative label
+		// length
+		final int[][] headers = new int[][] { { 1 << 30, 0 },
+				{ Integer.MAX_VALUE, 0 }, { -1, 0 }, { 0, 0 }, { 1, -1 },
+				{ 1, Integer.MAX_VALUE } };
+		for (final int[] header : headers) {
+			tree.freeze().write(file.toPath());
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.seek(12);
+			raf.writeInt(header[0]);
+			raf.writeInt(header[1]);
+			raf.close();
+			try {
+				FrozenWordTree.map(file.toPath(), false);
+				fail("corrupt header accepted: " + Arrays.toString(header));
+			} catch (final IOException e) {
+				// expected
+			}
+		}
+		// snapshots of version 1 had a parent table
+		tree.freeze().write(file.toPath());
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(4);
+		raf.writeInt(1);
+		raf.close();
+		try {
+			FrozenWordTree.map(file.toPath(), false);
+			fail("old version accepted");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRegexToWriter() {
+		final Word tree = WordHierarchyBuilder.createWordTree(du);
+		final StringWriter out = new StringWriter();
+		tree.processAll(new RegexWordProcessor(out), true);
+		assertEquals(toRegexSorted(tree), out.toString());
+	}
+
+	@Test
+	public void testRegexWithoutWords() {
+		final Word tree = WordHierarchyBuilder.createWordTree(Collections
+				.<String> emptyList());
+		final List<String> regexes = Arrays.asList(toRegexSorted(tree),
+				tree.toRegex(), MinimalAutomaton.of(tree).toRegex());
+		for (final String regex : regexes) {
+			final Pattern pattern = Pattern.compile(regex);
+			assertFalse(regex, pattern.matcher("").find());
+			assertFalse(regex, pattern.matcher("Euch").find());
+		}
+		assertEquals(0, RegexSharder.shard(tree, 10).size());
+		// the empty word alone still matches
+		final Word empty = WordHierarchyBuilder.createWordTree(Arrays
+				.asList(""));
+		assertTrue(Pattern.compile(empty.toRegex()).matcher("").matches());
+		assertTrue(Pattern.compile(MinimalAutomaton.of(empty).toRegex())
+				.matcher("").matches());
+	}
+
+	@Test
+	public void testRegexWithEmptyWord() {
+		final Word tree = WordHierarchyBuilder.createWordTree(" ab ac"
+				.split(" "));
+		final Pattern pattern = Pattern.compile(toRegexSorted(tree));
+		assertEquals("(?:a[bc])?", pattern.pattern());
+		assertTrue(pattern.matcher("").matches());
+		assertTrue(pattern.matcher("ac").matches());
+	}
+
+	@Test
+	public void testAtomicRegex() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		final RegexWordProcessor wp = new RegexWordProcessor(true);
+		tree.processAll(wp, true);
+		assertEquals("Eu(?>ch|er(?>e[ms])?+|rer?+)", wp.getResult());
+		final RegexWordProcessor rootWp = new RegexWordProcessor(true);
+		WordHierarchyBuilder.createWordTree(ihr).processAll(rootWp, true);
+		assertTrue(rootWp.getResult(), rootWp.getResult().startsWith(
+				"(?=[IS])(?>Ih"));
+	}
+
+	@Test
+	public void testAtomicRegexRandom() {
+		final Random random = new Random(5);
+		final Set<String> vocabulary = new HashSet<String>();
+		vocabulary.add("");
+		for (int i = 0; i < 100; i++) {
+			vocabulary.add(randomWord(random, 1 + random.nextInt(6)));
+		}
+		final Word tree = WordHierarchyBuilder.createWordTree(vocabulary);
+		final Pattern plain = Pattern.compile(toRegexSorted(tree));
+		final RegexWordProcessor wp = new RegexWordProcessor(true);
+		tree.processAll(wp, true);
+		final Pattern atomic = Pattern.compile(wp.getResult());
+		for (int i = 0; i < 1000; i++) {
+			final String candidate = randomWord(random, random.nextInt(8));
+			assertEquals(candidate, plain.matcher(candidate).matches(), atomic
+					.matcher(candidate).matches());
+		}
+		final String text = randomWord(random, 1000);
+		final Matcher plainMatcher = plain.matcher(text);
+		final Matcher atomicMatcher = atomic.matcher(text);
+		while (plainMatcher.find()) {
+			assertTrue(atomicMatcher.find());
+			assertEquals(plainMatcher.start(), atomicMatcher.start());
+			assertEquals(plainMatcher.end(), atomicMatcher.end());
+		}
+		assertFalse(atomicMatcher.find());
+	}
+
+	@Test
+	public void testAhoCorasick() {
+		final String[] words = "he she his hers s sh".split("\\s");
+		final AhoCorasickMatcher matcher = AhoCorasickMatcher
+				.of(WordHierarchyBuilder.createWordTree(words));
+		assertEquals(Arrays.asList("s", "sh", "she", "he", "hers", "s"),
+				matcher.findAll("ushers", AhoCorasickMatcher.Mode.OVERLAPPING));
+		assertEquals(Arrays.asList("she", "s"), matcher.findAll("ushers",
+				AhoCorasickMatcher.Mode.LEFTMOST_LONGEST));
+	}
+
+	@Test
+	public void testAhoCorasickRandom() {
+		final Random random = new Random(7);
+		final Set<String> vocabulary = new HashSet<String>();
+		for (int i = 0; i < 200; i++) {
+			vocabulary.add(randomWord(random, 1 + random.nextInt(5)));
+		}
+		final AhoCorasickMatcher matcher = AhoCorasickMatcher
+				.of(WordHierarchyBuilder.createWordTree(vocabulary));
+		final String text = randomWord(random, 2000);
+		final List<String> overlapping = new ArrayList<String>();
+		final List<String> leftmostLongest = new ArrayList<String>();
+		for (int end = 1; end <= text.length(); end++) {
+			for (int start = 0; start < end; start++) {
+				if (vocabulary.contains(text.substring(start, end))) {
+					overlapping.add(text.substring(start, end));
+				}
+			}
+		}
+		for (int start = 0; start < text.length();) {
+			int end = text.length();
+			while (end > start
+					&& !vocabulary.contains(text.substring(start, end))) {
+				end--;
+			}
+			if (end > start) {
+				leftmostLongest.add(text.substring(start, end));
+				start = end;
+			}
+			else {
+				start++;
+			}
+		}
+		assertEquals(overlapping,
+				matcher.findAll(text, AhoCorasickMatcher.Mode.OVERLAPPING));
+		assertEquals(leftmostLongest, matcher.findAll(text,
+				AhoCorasickMatcher.Mode.LEFTMOST_LONGEST));
+	}
+
+	@Test
+	public void testUtf8Scanner() throws IOException {
+		final String[] words = "\u00fcber \u00fc ber \u20acuro uro r"
+				.split(" ");
+		final Utf8Scanner scanner = Utf8Scanner.of(WordHierarchyBuilder
+				.createWordTree(words));
+		final Random random = new Random(3);
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			text.append(random.nextBoolean() ? words[random
+					.nextInt(words.length)] : "x\u00e4");
+		}
+		final byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		final File file = File.createTempFile("scan", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), bytes);
+		final List<String> found = new ArrayList<String>();
+		final long[] counts = scanner.scan(file.toPath(), 7,
+				new Utf8Scanner.MatchListener() {
+					@Override
+					public void match(final int term, final long start,
+							final long end) {
+						synchronized (found) {
+							found.add(start + " " + scanner.getTerm(term));
+						}
+						assertEquals(scanner.getTerm(term), new String(bytes,
+								(int) start, (int) (end - start),
+								StandardCharsets.UTF_8));
+					}
+				});
+		assertEquals(words.length, scanner.getTermCount());
+		int total = 0;
+		for (int term = 0; term < counts.length; term++) {
+			final String word = scanner.getTerm(term);
+			int expected = 0;
+			for (int i = text.indexOf(word); i != -1; i = text.indexOf(word,
+					i + 1)) {
+				++expected;
+			}
+			assertEquals(word, expected, counts[term]);
+			total += expected;
+		}
+		assertEquals(total, found.size());
+		assertEquals(total, new HashSet<String>(found).size());
+		try {
+			scanner.scan(file.toPath(), 0);
+			fail("no threads accepted");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMinimalAutomaton() {
+		final Word tree = WordHierarchyBuilder.createWordTree(du);
+		final MinimalAutomaton automaton = MinimalAutomaton.of(tree);
+		for (final String word : du) {
+			assertTrue(word, automaton.contains(word));
+		}
+		assertFalse(automaton.contains("Dei"));
+		assertFalse(automaton.contains("Deinx"));
+		final int[] treeSize = new int[1];
+		tree.processAll(new AbstractWordProcessor<Word>() {
+			@Override
+			public boolean processWord(final Word word) {
+				treeSize[0] += word.hasWord() ? word.getWordLength() : 1;
+				return true;
+			}
+		});
+		assertTrue(automaton.size() < treeSize[0]);
+		final Pattern pattern = Pattern.compile(automaton.toRegex());
+		for (final String word : du) {
+			assertTrue(word, pattern.matcher(word).matches());
+		}
+		final List<String> possessives = Arrays.asList("Dein", "Deine",
+				"Deinem", "Deinen", "Deiner", "Deines", "Euer", "Euerem", "Eure",
+				"Eurem", "Euren", "Eurer", "Eures", "Ihr", "Ihre", "Ihrem",
+				"Ihren", "Ihrer", "Ihres");
+		final String regex = MinimalAutomaton.fromSorted(
+				possessives.iterator()).toRegex();
+		assertEquals("(?:(?:Dein|Ihr)(?:e[mnrs]?)?|Eu(?:er(?:em)?|re[mnrs]?))",
+				regex);
+		assertTrue(regex.length() < toRegexSorted(
+				WordHierarchyBuilder.createWordTree(possessives)).length());
+	}
+
+	@Test
+	public void testMinimalAutomatonLongWords() throws InterruptedException {
+		// every state is final, so the regex of each state is nested in the
+		// one of the state before
+		final int n = 5000;
+		final List<String> vocabulary = new ArrayList<String>();
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			sb.append('a');
+			vocabulary.add(sb.toString());
+		}
+		final MinimalAutomaton automaton = MinimalAutomaton
+				.fromSorted(vocabulary.iterator());
+		final String[] regex = new String[1];
+		// a small stack, which a recursion per state would overflow
+		final Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				regex[0] = automaton.toRegex();
+			}
+		}, "toRegex", 1 << 18);
+		thread.start();
+		thread.join();
+		final StringBuilder expected = new StringBuilder("a");
+		for (int i = 2; i < n; i++) {
+			expected.append("(?:a");
+		}
+		expected.append("a?");
+		for (int i = 2; i < n; i++) {
+			expected.append(")?");
+		}
+		assertEquals(expected.toString(), regex[0]);
+	}
+
+	@Test
+	public void testMinimalAutomatonRandom() {
+		final Random random = new Random(11);
+		final Set<String> vocabulary = new HashSet<String>();
+		for (int i = 0; i < 40; i++) {
+			vocabulary.add(randomWord(random, random.nextInt(5)));
+		}
+		final MinimalAutomaton automaton = MinimalAutomaton
+				.of(WordHierarchyBuilder.createWordTree(vocabulary));
+		final Pattern pattern = Pattern.compile(automaton.toRegex());
+		final List<String> candidates = new ArrayList<String>();
+		candidates.add("");
+		for (int i = 0; i < candidates.size(); i++) {
+			final String candidate = candidates.get(i);
+			assertEquals(candidate, vocabulary.contains(candidate),
+					automaton.contains(candidate));
+			assertEquals(candidate, vocabulary.contains(candidate), pattern
+					.matcher(candidate).matches());
+			if (candidate.length() < 5) {
+				for (char c = 'a'; c <= 'c'; c++) {
+					candidates.add(candidate + c);
+				}
+			}
+		}
+		final List<String> sorted = new ArrayList<String>(vocabulary);
+		Collections.sort(sorted);
+		Collections.reverse(sorted);
+		try {
+			MinimalAutomaton.fromSorted(sorted.iterator());
+			fail("unsorted vocabulary accepted");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testShardRegex() {
+		final Word tree = WordHierarchyBuilder.createWordTree(du);
+		assertEquals(Arrays.asList(toRegexSorted(tree)), RegexSharder.shard(
+				tree, 1000));
+		final List<String> shards = RegexSharder.shard(tree, 60);
+		assertTrue(shards.size() > 1);
+		final List<Pattern> patterns = new ArrayList<Pattern>();
+		for (final String shard : shards) {
+			assertTrue(shard, shard.length() <= 60);
+			patterns.add(Pattern.compile(shard));
+		}
+		// balanced: no shard is much shorter than the longest one
+		assertTrue(shards.get(shards.size() - 1).length() > 30);
+		final Set<String> vocabulary = new HashSet<String>(Arrays.asList(du));
+		for (final String word : du) {
+			for (int end = 0; end <= word.length() + 1; end++) {
+				final String candidate = end <= word.length() ? word.substring(
+						0, end) : word + "e";
+				int matches = 0;
+				for (final Pattern pattern : patterns) {
+					matches += pattern.matcher(candidate).matches() ? 1 : 0;
+				}
+				assertEquals(candidate, vocabulary.contains(candidate) ? 1 : 0,
+						matches);
+			}
+		}
+		try {
+			RegexSharder.shard(tree, 10);
+			fail("word longer than the maximum length accepted");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 	@Test
 	public void testPattern() {
 		Pattern pattern = Pattern.compile("Sie");
@@ -279,6 +1382,33 @@ public class WordHierarchyTest {
 		assertTrue(ihrTree.testIt(ihrSet));
 		ihrSet.add("garbage");
 		assertFalse(ihrTree.testIt(ihrSet));
+		ihrSet.remove("garbage");
+		ihrSet.remove("Deine");
+		assertFalse(ihrTree.testIt(ihrSet));
+		// duplicates and the empty word
+		final List<String> vocabulary = new ArrayList<String>(
+				Arrays.asList(du));
+		vocabulary.addAll(Arrays.asList(du));
+		vocabulary.add("");
+		assertFalse(ihrTree.testIt(vocabulary));
+		ihrTree.setComplete(true);
+		assertTrue(ihrTree.testIt(vocabulary));
+	}
+
+	@Test
+	public void testContains() {
+		final Word tree = WordHierarchyBuilder.createWordTree(shortEuch);
+		for (final String word : shortEuch) {
+			assertTrue(tree.contains(word));
+			assertTrue(tree.contains(new StringBuilder(word)));
+		}
+		assertFalse(tree.contains("Eu"));
+		assertFalse(tree.contains("Eue"));
+		assertFalse(tree.contains("Euerx"));
+		assertFalse(tree.contains("Euerems"));
+		assertFalse(tree.contains(""));
+		assertFalse(tree.contains("x"));
+		assertTrue(tree.freeze().contains("Eueres"));
 	}
 
 	// This test runs for a while
@@ -354,9 +1484,10 @@ public class WordHierarchyTest {
 	public void testToRegex() {
 		final String input[]= "aabcd aabce".split("\\s");
 		final Word tree = WordHierarchyBuilder.createWordTree(input);
-		final String expected = "aabc[ed]";
+		final String expected1 = "aabc[ed]";
+		final String expected2 = "aabc[de]";
 		final String got = toRegex(tree);
-		assertEquals(expected, got);
+		assertTrue(got.equals(expected1) || got.equals(expected2));
 	}
 	
 	@Test
@@ -370,6 +1501,36 @@ public class WordHierarchyTest {
 	}
 
 	
+	/**
+	 * Generates a reproducible vocabulary of random words. It is skewed: most
+	 * words share the prefix "pre".
+	 * 
+	 * @param size
+	 *            the number of words
+	 * @return the vocabulary
+	 */
+	private static List<String> randomVocabulary(final int size) {
+		final Random random = new Random(42);
+		final List<String> vocabulary = new ArrayList<String>();
+		for (int i = 0; i < size; i++) {
+			final StringBuilder sb = new StringBuilder(i % 5 == 0 ? "" : "pre");
+			final int length = 1 + random.nextInt(8);
+			for (int j = 0; j < length; j++) {
+				sb.append((char) ('a' + random.nextInt(6)));
+			}
+			vocabulary.add(sb.toString());
+		}
+		return vocabulary;
+	}
+
+	private static String randomWord(final Random random, final int length) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + random.nextInt(3)));
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Generates a reproducible regex matching all words in this tree.
 	 * If you don't need reproducible ordering (mainly for testing),